@@ -0,0 +1,37 @@
+package de.adesso.anki;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures parsing the advertisements of the corpus' SCAN notifications.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AdvertisementDataBenchmark {
+
+  String[][] advertisements;
+  int next;
+
+  @Setup
+  public void setup() {
+    List<String[]> corpus = Corpus.advertisements();
+    advertisements = corpus.toArray(new String[corpus.size()][]);
+  }
+
+  @Benchmark
+  public AdvertisementData parse() {
+    String[] advertisement = advertisements[next];
+    next = (next + 1) % advertisements.length;
+    return new AdvertisementData(advertisement[0], advertisement[1]);
+  }
+}
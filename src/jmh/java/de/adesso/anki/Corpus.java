@@ -0,0 +1,111 @@
+package de.adesso.anki;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.bind.DatatypeConverter;
+
+/**
+ * Gateway session used as benchmark input.
+ *
+ * The session is stored in the gateway's text protocol, one line per notification or command.
+ * Lines received from the gateway start with "&lt; ", lines sent to it with "&gt; ".
+ */
+public final class Corpus {
+  private static final String RESOURCE = "/session.txt";
+
+  private static final List<String> received = new ArrayList<>();
+  private static final List<String> sent = new ArrayList<>();
+
+  static {
+    try (BufferedReader reader = new BufferedReader(
+        new InputStreamReader(Corpus.class.getResourceAsStream(RESOURCE), StandardCharsets.US_ASCII))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.startsWith("< ")) {
+          received.add(line.substring(2));
+        }
+        else if (line.startsWith("> ")) {
+          sent.add(line.substring(2));
+        }
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private Corpus() {}
+
+  /**
+   * @return all lines received from the gateway, in order
+   */
+  public static List<String> received() {
+    return Collections.unmodifiableList(received);
+  }
+
+  /**
+   * @return all lines sent to the gateway, in order
+   */
+  public static List<String> sent() {
+    return Collections.unmodifiableList(sent);
+  }
+
+  /**
+   * @return the raw vehicle messages received from the gateway, in order
+   */
+  public static List<byte[]> receivedMessages() {
+    return messages(received);
+  }
+
+  /**
+   * @return the raw vehicle messages sent to the gateway, in order
+   */
+  public static List<byte[]> sentMessages() {
+    return messages(sent);
+  }
+
+  /**
+   * @return the first raw vehicle message of the given type in either direction
+   */
+  public static byte[] message(int type) {
+    List<byte[]> messages = receivedMessages();
+    messages.addAll(sentMessages());
+    for (byte[] message : messages) {
+      if (Byte.toUnsignedInt(message[1]) == type) {
+        return message;
+      }
+    }
+    throw new IllegalArgumentException("no message of type " + Integer.toHexString(type) + " in " + RESOURCE);
+  }
+
+  /**
+   * @return the advertisements of all SCAN notifications as {manufacturer data, local name}
+   */
+  public static List<String[]> advertisements() {
+    List<String[]> advertisements = new ArrayList<>();
+    for (String line : received) {
+      String[] parts = line.split(";");
+      if (parts[0].equals("SCAN") && parts.length == 4) {
+        advertisements.add(new String[] { parts[2], parts[3] });
+      }
+    }
+    return advertisements;
+  }
+
+  private static List<byte[]> messages(List<String> lines) {
+    List<byte[]> messages = new ArrayList<>();
+    for (String line : lines) {
+      String[] parts = line.split(";");
+      if (parts.length == 2 && !Character.isUpperCase(parts[0].charAt(0))) {
+        messages.add(DatatypeConverter.parseHexBinary(parts[1]));
+      }
+    }
+    return messages;
+  }
+}
@@ -0,0 +1,96 @@
+package de.adesso.anki;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import de.adesso.anki.messages.LocalizationPositionUpdateMessage;
+import de.adesso.anki.messages.LocalizationTransitionUpdateMessage;
+
+/**
+ * Measures a reader thread delivering the corpus' localization updates of a fleet into a
+ * {@link FleetState} while another thread reads vehicles and whole-fleet snapshots.
+ * Run with "-prof gc": updates and single vehicle reads should not allocate.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FleetStateBenchmark {
+
+  @Param({"4", "50"})
+  int vehicleCount;
+
+  FleetState state;
+  Vehicle[] vehicles;
+  ByteBuffer[] frames;
+
+  @Setup
+  public void setup() {
+    List<ByteBuffer> updates = new ArrayList<>();
+    for (byte[] message : Corpus.receivedMessages()) {
+      int type = Byte.toUnsignedInt(message[1]);
+      if (type == LocalizationPositionUpdateMessage.TYPE || type == LocalizationTransitionUpdateMessage.TYPE) {
+        updates.add(ByteBuffer.wrap(message).order(ByteOrder.LITTLE_ENDIAN));
+      }
+    }
+    frames = updates.toArray(new ByteBuffer[updates.size()]);
+
+    state = new FleetState();
+    vehicles = new Vehicle[vehicleCount];
+    for (int i = 0; i < vehicleCount; i++) {
+      vehicles[i] = new Vehicle(null, String.format("benchmark%03d", i), "bebe0801efbe0000", "40");
+      state.track(vehicles[i]);
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class Cursor {
+    int next;
+    VehicleStatus status = new VehicleStatus();
+  }
+
+  @Benchmark
+  @Group("updateAndRead")
+  @GroupThreads(1)
+  public void update(Cursor cursor) {
+    ByteBuffer frame = frames[cursor.next % frames.length];
+    Vehicle vehicle = vehicles[cursor.next % vehicles.length];
+    cursor.next++;
+    frame.rewind();
+    vehicle.fireMessageReceived(vehicle.decodeFlyweight(frame));
+  }
+
+  @Benchmark
+  @Group("updateAndRead")
+  @GroupThreads(1)
+  public boolean read(Cursor cursor) {
+    return state.read(vehicles[cursor.next++ % vehicles.length], cursor.status);
+  }
+
+  @Benchmark
+  @Group("updateAndSnapshot")
+  @GroupThreads(1)
+  public void updateWhileSnapshot(Cursor cursor) {
+    update(cursor);
+  }
+
+  @Benchmark
+  @Group("updateAndSnapshot")
+  @GroupThreads(1)
+  public List<VehicleStatus> snapshot() {
+    return state.snapshot();
+  }
+}
@@ -0,0 +1,71 @@
+package de.adesso.anki;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import de.adesso.anki.messages.LocalizationPositionUpdateMessage;
+import de.adesso.anki.messages.LocalizationTransitionUpdateMessage;
+import de.adesso.anki.messages.Message;
+
+/**
+ * Compares decoding and dispatching the corpus' localization updates into new messages and into
+ * the vehicle's reusable messages. Run with "-prof gc": the flyweight benchmark should not allocate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FlyweightDecodingBenchmark {
+
+  Vehicle vehicle;
+  ByteBuffer[] frames;
+  int next;
+
+  @Setup
+  public void setup(Blackhole blackhole) {
+    List<ByteBuffer> updates = new ArrayList<>();
+    for (byte[] message : Corpus.receivedMessages()) {
+      int type = Byte.toUnsignedInt(message[1]);
+      if (type == LocalizationPositionUpdateMessage.TYPE || type == LocalizationTransitionUpdateMessage.TYPE) {
+        updates.add(ByteBuffer.wrap(message).order(ByteOrder.LITTLE_ENDIAN));
+      }
+    }
+    frames = updates.toArray(new ByteBuffer[updates.size()]);
+
+    vehicle = new Vehicle(null, "benchmark", "bebe0801efbe0000", "40");
+    TransientMessageListener<LocalizationPositionUpdateMessage> positionListener =
+        (m) -> blackhole.consume(m);
+    TransientMessageListener<LocalizationTransitionUpdateMessage> transitionListener =
+        (m) -> blackhole.consume(m);
+    vehicle.addMessageListener(LocalizationPositionUpdateMessage.class, positionListener);
+    vehicle.addMessageListener(LocalizationTransitionUpdateMessage.class, transitionListener);
+  }
+
+  @Benchmark
+  public void parse() {
+    vehicle.fireMessageReceived(Message.parse(nextFrame()));
+  }
+
+  @Benchmark
+  public void flyweight() {
+    vehicle.fireMessageReceived(vehicle.decodeFlyweight(nextFrame()));
+  }
+
+  private ByteBuffer nextFrame() {
+    ByteBuffer frame = frames[next];
+    next = (next + 1) % frames.length;
+    frame.rewind();
+    return frame;
+  }
+}
@@ -0,0 +1,70 @@
+package de.adesso.anki;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import de.adesso.anki.messages.LocalizationPositionUpdateMessage;
+import de.adesso.anki.messages.Message;
+
+/**
+ * Measures Vehicle listener dispatch with a fixed set of listeners and while another thread keeps
+ * adding and removing listeners. Run with "-prof gc": the dispatch benchmarks should not allocate.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ListenerDispatchBenchmark {
+
+  @Param({ "1", "4", "16" })
+  int listenerCount;
+
+  Vehicle vehicle;
+  Message message;
+  MessageListener<LocalizationPositionUpdateMessage> churnListener;
+  Blackhole blackhole;
+
+  @Setup
+  public void setup(Blackhole blackhole) {
+    this.blackhole = blackhole;
+    vehicle = new Vehicle(null, "benchmark", "bebe0801efbe0000", "40");
+    message = Message.parse(ByteBuffer.wrap(Corpus.message(LocalizationPositionUpdateMessage.TYPE)));
+
+    for (int i = 0; i < listenerCount; i++) {
+      vehicle.addMessageListener(LocalizationPositionUpdateMessage.class, (m) -> this.blackhole.consume(m));
+    }
+    churnListener = (m) -> this.blackhole.consume(m);
+  }
+
+  @Benchmark
+  @Group("steady")
+  public void dispatch() {
+    vehicle.fireMessageReceived(message);
+  }
+
+  @Benchmark
+  @Group("churn")
+  @GroupThreads(3)
+  public void dispatchDuringChurn() {
+    vehicle.fireMessageReceived(message);
+  }
+
+  @Benchmark
+  @Group("churn")
+  @GroupThreads(1)
+  public void addAndRemoveListener() {
+    vehicle.addMessageListener(LocalizationPositionUpdateMessage.class, churnListener);
+    vehicle.removeMessageListener(LocalizationPositionUpdateMessage.class, churnListener);
+  }
+}
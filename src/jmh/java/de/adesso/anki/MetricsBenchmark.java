@@ -0,0 +1,58 @@
+package de.adesso.anki;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import de.adesso.anki.messages.LocalizationPositionUpdateMessage;
+import de.adesso.anki.messages.Message;
+
+/**
+ * Measures the cost of collecting metrics for a received message, uncontended and with four
+ * threads recording into the same histogram. Run with "-prof gc": recording should not allocate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MetricsBenchmark {
+
+  Metrics metrics;
+  LatencyHistogram histogram;
+  Vehicle vehicle;
+  Message message;
+  long value;
+
+  @Setup
+  public void setup() {
+    metrics = new Metrics(null);
+    metrics.setEnabled(true);
+    histogram = new LatencyHistogram();
+    vehicle = new Vehicle(null, "benchmark", "bebe0801efbe0000", "40");
+    message = Message.parse(ByteBuffer.wrap(Corpus.message(LocalizationPositionUpdateMessage.TYPE)));
+  }
+
+  @Benchmark
+  public void record() {
+    histogram.record(value++ & 0xfffff);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public void recordContended() {
+    histogram.record(System.nanoTime() & 0xfffff);
+  }
+
+  @Benchmark
+  public void received() {
+    long now = System.nanoTime();
+    metrics.received(vehicle, message, 500, now);
+  }
+}
@@ -0,0 +1,101 @@
+package de.adesso.anki;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures how fast the NotificationReader thread splits and dispatches the corpus' notifications.
+ * Every invocation writes all received lines of the corpus to a pipe and waits until the last
+ * listener has seen all of them, so the score is the time per pass over the corpus.
+ *
+ * With routing enabled, vehicle notifications are routed to frame listeners by address, otherwise
+ * all notifications are passed as strings to the line listeners.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class NotificationReaderBenchmark {
+  @Param({ "1", "4", "16" })
+  int listenerCount;
+
+  @Param({ "false", "true" })
+  boolean routed;
+
+  Pipe pipe;
+  NotificationReader reader;
+  ByteBuffer session;
+  AtomicInteger dispatched;
+  int lineCount;
+
+  @Setup
+  public void setup(Blackhole blackhole) throws IOException {
+    StringBuilder text = new StringBuilder();
+    List<String> lines = Corpus.received();
+    for (String line : lines) {
+      text.append(line).append('\n');
+    }
+    session = ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.US_ASCII));
+    lineCount = lines.size();
+
+    pipe = Pipe.open();
+    reader = new NotificationReader(pipe.source());
+    dispatched = new AtomicInteger();
+
+    if (routed) {
+      Set<String> addresses = new LinkedHashSet<>();
+      for (String line : lines) {
+        String address = line.substring(0, line.indexOf(';'));
+        if (!address.equals(address.toUpperCase())) {
+          addresses.add(address);
+        }
+      }
+      int channel = 0;
+      for (String address : addresses) {
+        reader.route(address, channel++);
+      }
+    }
+
+    for (int i = 1; i < listenerCount; i++) {
+      reader.addListener((line) -> blackhole.consume(line));
+      reader.addFrameListener((channel, frame) -> blackhole.consume(frame));
+    }
+    reader.addListener((line) -> dispatched.lazySet(dispatched.get() + 1));
+    reader.addFrameListener((channel, frame) -> dispatched.lazySet(dispatched.get() + 1));
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    reader.close();
+    pipe.sink().close();
+  }
+
+  @Benchmark
+  public void dispatch() throws IOException {
+    int target = dispatched.get() + lineCount;
+    session.rewind();
+    while (session.hasRemaining()) {
+      pipe.sink().write(session);
+    }
+    while (dispatched.get() < target) {
+      // spin, parking would take longer than a whole pass
+    }
+  }
+}
@@ -0,0 +1,54 @@
+package de.adesso.anki;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import de.adesso.anki.messages.LocalizationPositionUpdateMessage;
+import de.adesso.anki.roadmap.MutablePosition;
+import de.adesso.anki.simulator.SimulatedTrack;
+
+/**
+ * Measures estimating a vehicle's position on the oval track at times spread over a lap.
+ * Run with "-prof gc": estimates should not allocate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PositionEstimatorBenchmark {
+
+  PositionEstimator estimator;
+  MutablePosition position = new MutablePosition();
+  long start;
+  long step;
+  int next;
+
+  @Setup
+  public void setup() {
+    Vehicle vehicle = new Vehicle(null, "benchmark", "bebe0801efbe0000", "40");
+    estimator = new PositionEstimator(vehicle, SimulatedTrack.oval().getRoadmap());
+    estimator.setMaxExtrapolation(1, TimeUnit.HOURS);
+    estimator.start();
+
+    vehicle.fireMessageReceived(new LocalizationPositionUpdateMessage(0, 34, 22.5f, 1000, false));
+    start = System.nanoTime();
+    step = TimeUnit.MILLISECONDS.toNanos(7);
+  }
+
+  @Benchmark
+  public MutablePosition estimate() {
+    estimator.estimate(start + step * (next++ & 1023), position);
+    return position;
+  }
+
+  @Benchmark
+  public double estimateDistance() {
+    return estimator.estimateDistance(start + step * (next++ & 1023));
+  }
+}
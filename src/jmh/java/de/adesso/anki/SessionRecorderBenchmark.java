@@ -0,0 +1,54 @@
+package de.adesso.anki;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import de.adesso.anki.messages.LocalizationPositionUpdateMessage;
+
+/**
+ * Measures the cost of recording a received position update. Run with "-prof gc": recording
+ * should not allocate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SessionRecorderBenchmark {
+
+  Path path;
+  SessionRecorder recorder;
+  Vehicle vehicle;
+  ByteBuffer frame;
+
+  @Setup
+  public void setup() throws IOException {
+    path = Files.createTempFile("session", ".log");
+    Files.delete(path);
+    recorder = new SessionRecorder(path);
+    vehicle = new Vehicle(null, "benchmark", "efbe00084d3c2b1a", "10");
+    frame = ByteBuffer.wrap(Corpus.message(LocalizationPositionUpdateMessage.TYPE)).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    recorder.close();
+    Files.delete(path);
+  }
+
+  @Benchmark
+  public void recordReceived() {
+    recorder.recordReceived(vehicle, frame);
+  }
+}
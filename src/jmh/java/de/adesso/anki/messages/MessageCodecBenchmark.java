@@ -0,0 +1,73 @@
+package de.adesso.anki.messages;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import de.adesso.anki.Corpus;
+
+/**
+ * Measures encoding and decoding of every known message type, using the first message of each
+ * type in the corpus and a reused direct buffer. Run with "-prof gc": encoding should not allocate,
+ * decoding should only allocate the message.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MessageCodecBenchmark {
+
+  @Param({
+    "PingRequest", "PingResponse", "VersionRequest", "VersionResponse",
+    "BatteryLevelRequest", "BatteryLevelResponse", "SetLights", "SetSpeed",
+    "ChangeLane", "CancelLaneChange", "LocalizationPositionUpdate", "LocalizationTransitionUpdate",
+    "LocalizationIntersectionUpdate", "VehicleDelocalized", "SetOffsetFromRoadCenter",
+    "OffsetFromRoadCenterUpdate", "Turn", "LightsPattern", "VehicleInfo", "SetConfigParams", "SdkMode"
+  })
+  String messageType;
+
+  ByteBuffer raw;
+  ByteBuffer buffer;
+  Message message;
+
+  @Setup
+  public void setup() throws ReflectiveOperationException {
+    Class<?> messageClass = Class.forName(Message.class.getPackage().getName() + "." + messageType + "Message");
+    byte[] data = Corpus.message(messageClass.getField("TYPE").getInt(null));
+
+    raw = ByteBuffer.allocateDirect(data.length).order(ByteOrder.LITTLE_ENDIAN);
+    raw.put(data).flip();
+    buffer = ByteBuffer.allocateDirect(Message.MAX_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+    message = Message.parse(raw.duplicate());
+    if (message.getClass() != messageClass) {
+      throw new IllegalStateException("parsed " + message.getClass().getSimpleName() + " instead of " + messageType);
+    }
+  }
+
+  @Benchmark
+  public ByteBuffer encode() {
+    buffer.clear();
+    message.writeTo(buffer);
+    return buffer;
+  }
+
+  @Benchmark
+  public Message decode() {
+    raw.rewind();
+    return Message.parse(raw);
+  }
+
+  @Benchmark
+  public String toHex() {
+    return message.toHex();
+  }
+}
@@ -0,0 +1,79 @@
+package de.adesso.anki.roadmap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import de.adesso.anki.roadmap.roadpieces.CurvedRoadpiece;
+import de.adesso.anki.roadmap.roadpieces.Roadpiece;
+import de.adesso.anki.roadmap.roadpieces.StraightRoadpiece;
+
+/**
+ * Measures placing the pieces of large synthetic tracks: rectangles of four curves and
+ * straights, built one section at a time and in a single pass.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LargeTrackBenchmark {
+
+  @Param({"100", "1000", "10000"})
+  int pieceCount;
+
+  boolean[] curved;
+
+  @Setup
+  public void setup() {
+    int straights = pieceCount - 4;
+    int longSide = straights / 4 + straights % 4 / 2;
+    int shortSide = straights / 2 - longSide;
+    curved = new boolean[4 + 2 * longSide + 2 * shortSide];
+
+    int i = 0;
+    for (int side = 0; side < 4; side++) {
+      curved[i++] = true;
+      i += side % 2 == 0 ? longSide : shortSide;
+    }
+  }
+
+  @Benchmark
+  public Roadmap addSection() {
+    Roadmap roadmap = new Roadmap();
+    for (Section section : sections()) {
+      roadmap.addSection(section);
+    }
+    return check(roadmap);
+  }
+
+  @Benchmark
+  public Roadmap addSections() {
+    Roadmap roadmap = new Roadmap();
+    roadmap.addSections(sections());
+    return check(roadmap);
+  }
+
+  List<Section> sections() {
+    List<Section> sections = new ArrayList<>(curved.length);
+    for (boolean curve : curved) {
+      Roadpiece piece = curve ? new CurvedRoadpiece() : new StraightRoadpiece();
+      sections.add(piece.getSectionByLocation(0, false));
+    }
+    return sections;
+  }
+
+  private static Roadmap check(Roadmap roadmap) {
+    if (!roadmap.isComplete()) {
+      throw new IllegalStateException("synthetic track is not closed");
+    }
+    return roadmap;
+  }
+}
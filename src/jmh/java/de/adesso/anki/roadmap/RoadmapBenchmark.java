@@ -0,0 +1,112 @@
+package de.adesso.anki.roadmap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import de.adesso.anki.Corpus;
+import de.adesso.anki.messages.LocalizationPositionUpdateMessage;
+import de.adesso.anki.messages.LocalizationTransitionUpdateMessage;
+import de.adesso.anki.messages.Message;
+
+/**
+ * Measures building a roadmap from the first lap of the corpus' first vehicle, the way
+ * RoadmapScanner adds a section on every transition, transforming positions along it and
+ * looking up the track distance of the lap's localizations.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RoadmapBenchmark {
+
+  int[] roadpieceIds;
+  int[] locationIds;
+  boolean[] reverse;
+  Roadmap roadmap;
+  Position[] positions;
+  Position[] exits;
+
+  @Setup
+  public void setup() {
+    String address = null;
+    LocalizationPositionUpdateMessage lastPosition = null;
+    List<LocalizationPositionUpdateMessage> lap = new ArrayList<>();
+
+    for (String line : Corpus.received()) {
+      int separator = line.indexOf(';');
+      if (address == null && !line.startsWith("SCAN") && !line.startsWith("CONNECT")) {
+        address = line.substring(0, separator);
+      }
+      if (!line.substring(0, separator).equals(address)) {
+        continue;
+      }
+
+      Message message = Message.parse(line.substring(separator + 1));
+      if (message instanceof LocalizationPositionUpdateMessage) {
+        lastPosition = (LocalizationPositionUpdateMessage) message;
+      }
+      else if (message instanceof LocalizationTransitionUpdateMessage && lastPosition != null) {
+        if (!lap.isEmpty() && lap.get(0).getRoadPieceId() == lastPosition.getRoadPieceId()) {
+          break;
+        }
+        lap.add(lastPosition);
+      }
+    }
+
+    roadpieceIds = new int[lap.size()];
+    locationIds = new int[lap.size()];
+    reverse = new boolean[lap.size()];
+    for (int i = 0; i < lap.size(); i++) {
+      roadpieceIds[i] = lap.get(i).getRoadPieceId();
+      locationIds[i] = lap.get(i).getLocationId();
+      reverse[i] = lap.get(i).isParsedReverse();
+    }
+
+    roadmap = add();
+    if (!roadmap.isComplete()) {
+      throw new IllegalStateException("first lap of the corpus does not close the roadmap");
+    }
+
+    positions = new Position[roadmap.size()];
+    exits = new Position[roadmap.size()];
+    for (int i = 0; i < roadmap.size(); i++) {
+      positions[i] = roadmap.getPiece(i).getPosition();
+      exits[i] = roadmap.getSection(i).getExit();
+    }
+  }
+
+  @Benchmark
+  public Roadmap add() {
+    Roadmap roadmap = new Roadmap();
+    for (int i = 0; i < roadpieceIds.length; i++) {
+      roadmap.add(roadpieceIds[i], locationIds[i], reverse[i]);
+    }
+    return roadmap;
+  }
+
+  @Benchmark
+  public double transform() {
+    double sum = 0;
+    for (int i = 0; i < positions.length; i++) {
+      sum += positions[i].transform(exits[i]).getX();
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public double indexOf() {
+    double sum = 0;
+    for (int i = 0; i < roadpieceIds.length; i++) {
+      sum += roadmap.getDistance(roadmap.indexOf(roadpieceIds[i], locationIds[i]));
+    }
+    return sum;
+  }
+}
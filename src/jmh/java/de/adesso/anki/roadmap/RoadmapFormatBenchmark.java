@@ -0,0 +1,60 @@
+package de.adesso.anki.roadmap;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures loading stored roadmaps of rectangular tracks like those of {@link LargeTrackBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RoadmapFormatBenchmark {
+
+  @Param({"7", "1000", "10000"})
+  int pieceCount;
+
+  byte[] binary;
+  String json;
+
+  @Setup
+  public void setup() throws IOException {
+    LargeTrackBenchmark track = new LargeTrackBenchmark();
+    track.pieceCount = pieceCount;
+    track.setup();
+
+    Roadmap roadmap = new Roadmap();
+    for (boolean curve : track.curved) {
+      roadmap.add(curve ? 17 : 36, 0, false);
+    }
+    if (!roadmap.isComplete()) {
+      throw new IllegalStateException("synthetic track is not closed");
+    }
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    RoadmapFormat.write(roadmap, out);
+    binary = out.toByteArray();
+    json = RoadmapFormat.toJson(roadmap);
+  }
+
+  @Benchmark
+  public Roadmap read() throws IOException {
+    return RoadmapFormat.read(new ByteArrayInputStream(binary));
+  }
+
+  @Benchmark
+  public Roadmap fromJson() throws IOException {
+    return RoadmapFormat.fromJson(json);
+  }
+}
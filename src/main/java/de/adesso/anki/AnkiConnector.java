@@ -1,137 +1,980 @@
-package de.adesso.anki;
-
-import java.io.IOException;
-import java.io.PrintWriter;
-import java.net.Socket;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-
-import com.google.common.collect.ArrayListMultimap;
-import com.google.common.collect.Multimap;
-
-import de.adesso.anki.messages.Message;
-
-/**
- * Manages a Bluetooth LE connection by communicating with the Node.js socket.
- * 
- * @author Yannick Eckey <yannick.eckey@adesso.de>
- */
-@SuppressWarnings("rawtypes")
-public class AnkiConnector {
-  
-  private Socket socket;
-  private final String host;
-  private final int port;
-  
-  private PrintWriter writer;
-  private NotificationReader reader;
-  
-  private Multimap<Vehicle, MessageListener> messageListeners;
-  private Map<Vehicle, NotificationListener> notificationListeners;
-  
-  public AnkiConnector(String host, int port) throws IOException {
-	this.host = host;
-	this.port = port;
-    socket = new Socket(host, port);
-    writer = new PrintWriter(socket.getOutputStream(), true);
-    reader = new NotificationReader(socket.getInputStream());
-    
-    messageListeners = ArrayListMultimap.create();
-    notificationListeners = new HashMap<Vehicle, NotificationListener>();
-  }
-  
-  public AnkiConnector(String host) throws IOException {
-    this(host, 5000);
-  }
-  
-  public AnkiConnector(AnkiConnector anki) throws IOException{
-	  this(anki.host, anki.port);
-  }
-  
-  public synchronized List<Vehicle> findVehicles() {
-    writer.println("SCAN");
-    List<Vehicle> foundVehicles = new ArrayList<>();
-    boolean expectingResponse = true;
-    while (expectingResponse)
-    {
-      String response = reader.waitFor("SCAN;");
-      if (response.equals("SCAN;COMPLETED")) {
-        expectingResponse = false;
-      }
-      else {
-        String[] parts = response.split(";");
-        
-        String address = parts[1];
-        String manufacturerData = parts[2];
-        String localName = parts[3];
-        
-        foundVehicles.add(new Vehicle(this, address, manufacturerData, localName));
-      }
-    }
-    return foundVehicles;
-  }
-
-  synchronized void connect(Vehicle vehicle) throws InterruptedException {
-    writer.println("CONNECT;"+vehicle.getAddress());
-    String response = reader.waitFor("CONNECT;");
-    
-    if (response.equals("CONNECT;ERROR")) {
-      throw new RuntimeException("connect failed");
-    }
-    
-    NotificationListener carsNotificationListener = (line) -> {
-        if (line.startsWith(vehicle.getAddress())) {
-          String messageString = line.replaceFirst(vehicle.getAddress()+";", "");
-          Message message = Message.parse(messageString);
-          fireMessageReceived(vehicle, message);
-        }
-      };
-    // check if there is a notification listener -> if yes, remove it! (otherwise it will be a listener we cannot track anymore...)
-    if(notificationListeners.containsKey(vehicle)){
-    	reader.removeListener(notificationListeners.get(vehicle));
-    }
-    notificationListeners.put(vehicle, carsNotificationListener);
-    reader.addListener(carsNotificationListener);
-  }
-  
-  synchronized void sendMessage(Vehicle vehicle, Message message) {
-    writer.println(vehicle.getAddress() + ";" + message.toHex());
-    writer.flush();
-  }
-  
-  public void addMessageListener(Vehicle vehicle, MessageListener<? extends Message> listener) {
-    messageListeners.put(vehicle, listener);
-  }
-  
-  public void removeMessageListener(Vehicle vehicle, MessageListener<? extends Message> listener) {
-    messageListeners.remove(vehicle, listener);
-  }
-  
-  @SuppressWarnings("unchecked")
-  public void fireMessageReceived(Vehicle vehicle, Message message) {
-    for (MessageListener l : messageListeners.get(vehicle)) {
-      l.messageReceived(message);
-    }
-  }
-
-  synchronized void disconnect(Vehicle vehicle) {
-    writer.println("DISCONNECT;"+vehicle.getAddress());
-    reader.waitFor("DISCONNECT;");
-    reader.removeListener(notificationListeners.remove(vehicle));
-  }
-
-  public void close() {
-    reader.close();
-    writer.close();
-    
-    try {
-      socket.close();
-    }
-    catch (IOException e) {
-      // TODO Auto-generated catch block
-      e.printStackTrace();
-    }
-  }
-}
+package de.adesso.anki;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import de.adesso.anki.messages.Message;
+
+/**
+ * Manages a Bluetooth LE connection by communicating with the Node.js socket.
+ *
+ * All vehicles found by a connector share its socket. Notifications are routed to the connected
+ * vehicles by the NotificationReader, which looks up the vehicle channel for each notification
+ * once instead of offering it to every vehicle.
+ *
+ * By default all commands and notifications are exchanged as lines of text, with messages
+ * encoded as hex strings. If binary framing is requested, the connector negotiates it with the
+ * Node.js gateway after opening the socket. Messages are then exchanged as raw length-prefixed
+ * frames on a channel assigned to each connected vehicle (see {@link NotificationReader}).
+ * Gateways that do not support binary framing are used in text mode.
+ *
+ * Gateways can also offer the "broadcast" feature during this negotiation. A message for several
+ * vehicles is then written once, and the gateway writes it to each of the vehicles (see
+ * {@link Fleet}). As a binary frame, a broadcast is sent on {@link NotificationReader#BROADCAST_CHANNEL}
+ * and holds the number of vehicles, their channels and the raw message. As text, it is the line
+ * "BROADCAST;address,address,...;hex message".
+ *
+ * Connecting and disconnecting vehicles does not block the connector: requests for different
+ * vehicles can be in flight at the same time and are completed by the gateway's responses.
+ *
+ * If the socket to the gateway is lost, the connector notifies its {@link ConnectionListener}s
+ * and fails pending requests. {@link #reconnect()} opens a new socket, after which the vehicles
+ * have to be connected again (see {@link HealthMonitor}).
+ *
+ * @author Yannick Eckey <yannick.eckey@adesso.de>
+ */
+@SuppressWarnings("rawtypes")
+public class AnkiConnector {
+  private static final long NEGOTIATION_TIMEOUT = 1000;
+  private static final int BUFFER_SIZE = 1024;
+  private static final long DEFAULT_TIMEOUT = 5000;
+  private static final long SCAN_DURATION = 2000;
+  private static final byte[] HEX_DIGITS = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+
+  private volatile SocketChannel socket;
+  private final AtomicBoolean socketOpen = new AtomicBoolean();
+  private final String host;
+  private final int port;
+  private final boolean binary;
+
+  private final ByteBuffer writeBuffer;
+  private final ByteBuffer encodeBuffer;
+  private MessageWriter writer;
+  private volatile NotificationReader reader;
+  private volatile boolean framed;
+  private volatile boolean broadcasting;
+
+  private AtomicReferenceArray<Vehicle> channelVehicles;
+  private Map<Vehicle, Integer> vehicleChannels;
+
+  private Map<Vehicle, ListenerList<MessageListener<?>>> messageListeners;
+  private volatile boolean flyweightDecoding;
+  private volatile SessionRecorder recorder;
+  private volatile MessageDispatcher dispatcher;
+  private int inboundCapacity = MessageDispatcher.DEFAULT_CAPACITY;
+  private final Metrics metrics;
+  private VehicleDiscovery discovery;
+
+  private Map<String, CompletableFuture<Void>> pendingConnects;
+  private Map<String, CompletableFuture<Void>> pendingDisconnects;
+  private ScheduledExecutorService scheduler;
+  private volatile long timeoutMillis = DEFAULT_TIMEOUT;
+  private volatile boolean connected;
+  private volatile boolean closed;
+  private final ListenerList<ConnectionListener> connectionListeners;
+
+  /**
+   * Creates a connector for the Node.js gateway at the given address.
+   *
+   * @param host gateway host name
+   * @param port gateway port
+   * @param binary whether binary framing should be negotiated with the gateway
+   * @throws IOException if the gateway cannot be reached
+   */
+  public AnkiConnector(String host, int port, boolean binary) throws IOException {
+    this.host = host;
+    this.port = port;
+    this.binary = binary;
+    writeBuffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    encodeBuffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    writer = new MessageWriter(this);
+
+    channelVehicles = new AtomicReferenceArray<>(NotificationReader.BROADCAST_CHANNEL);
+    vehicleChannels = new ConcurrentHashMap<>();
+    messageListeners = new ConcurrentHashMap<>();
+    metrics = new Metrics(this);
+    connectionListeners = new ListenerList<>(new ConnectionListener[0]);
+
+    pendingConnects = new LinkedHashMap<>();
+    pendingDisconnects = new LinkedHashMap<>();
+    scheduler = Executors.newSingleThreadScheduledExecutor(Resources.threadFactory("anki-timeouts"));
+
+    discovery = new VehicleDiscovery(this);
+    open();
+    connected = true;
+  }
+
+  /**
+   * Opens the socket to the gateway and starts reading from it.
+   */
+  private void open() throws IOException {
+    framed = false;
+    broadcasting = false;
+    socket = SocketChannel.open(new InetSocketAddress(host, port));
+    socketOpen.set(true);
+    Resources.socketOpened();
+    reader = new NotificationReader(socket);
+    reader.addListener(discovery);
+    reader.addListener((line) -> {
+      if (line.startsWith("CONNECT;")) {
+        handleResponse(pendingConnects, line);
+      }
+      else if (line.startsWith("DISCONNECT;")) {
+        handleResponse(pendingDisconnects, line);
+      }
+    });
+
+    reader.addFrameListener((channel, frame) -> {
+      // frames on channels that are never assigned, like the broadcast channel, are dropped
+      Vehicle vehicle = channel < channelVehicles.length() ? channelVehicles.get(channel) : null;
+      if (vehicle != null) {
+        SessionRecorder recorder = this.recorder;
+        if (recorder != null) {
+          recorder.recordReceived(vehicle, frame);
+        }
+        boolean measure = metrics.isEnabled();
+        long start = measure ? System.nanoTime() : 0;
+        MessageDispatcher dispatcher = this.dispatcher;
+        // queued messages must not be reused, so they are never decoded into flyweights
+        Message message = dispatcher == null ? decode(vehicle, frame) : Message.parse(frame);
+        if (measure) {
+          long parsed = System.nanoTime();
+          metrics.received(vehicle, message, parsed - start, parsed);
+        }
+
+        if (dispatcher == null) {
+          deliver(vehicle, message);
+        }
+        else {
+          dispatcher.dispatch(vehicle, message);
+        }
+      }
+    });
+
+    NotificationReader opened = reader;
+    reader.addCloseListener(() -> {
+      // a reader that was replaced by reconnect() is no longer relevant
+      if (reader == opened) {
+        connectionLost();
+      }
+    });
+
+    if (binary) {
+      negotiateFraming();
+    }
+  }
+
+  public AnkiConnector(String host, int port) throws IOException {
+    this(host, port, false);
+  }
+
+  public AnkiConnector(String host) throws IOException {
+    this(host, 5000);
+  }
+
+  public AnkiConnector(AnkiConnector anki) throws IOException{
+	  this(anki.host, anki.port, anki.binary);
+  }
+
+  String getHost() {
+    return host;
+  }
+
+  int getPort() {
+    return port;
+  }
+
+  /**
+   * Returns whether messages are exchanged as binary frames on this connection.
+   */
+  public boolean isFramed() {
+    return framed;
+  }
+
+  /**
+   * Returns whether the gateway writes a message for several vehicles to each of them, so that
+   * it is sent over the socket once.
+   */
+  public boolean isBroadcasting() {
+    return broadcasting;
+  }
+
+  private void negotiateFraming() {
+    CountDownLatch doneSignal = new CountDownLatch(1);
+    NotificationListener listener = (line) -> {
+      if (line.startsWith("HELLO;")) {
+        List<String> features = Arrays.asList(line.substring(6).split(","));
+        broadcasting = features.contains("broadcast");
+        if (features.contains("binary")) {
+          reader.switchToFrames();
+        }
+        doneSignal.countDown();
+      }
+    };
+    reader.addListener(listener);
+
+    sendCommand("HELLO;binary,broadcast");
+    try {
+      doneSignal.await(NEGOTIATION_TIMEOUT, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    reader.removeListener(listener);
+
+    framed = reader.isFramed();
+  }
+
+  /**
+   * Scans for vehicles and returns all vehicles found once the scan is completed.
+   */
+  public List<Vehicle> findVehicles() {
+    List<Vehicle> foundVehicles = Collections.synchronizedList(new ArrayList<>());
+    scanAsync(foundVehicles::add).join();
+    return new ArrayList<>(foundVehicles);
+  }
+
+  /**
+   * Scans for vehicles without blocking. Each vehicle is passed to the listener as soon as its
+   * advertisement arrives.
+   *
+   * @return a future that is completed when the gateway's scan window ends, or fails if it does
+   *         not end in time, in which case the listener is removed and the scan is stopped
+   */
+  public CompletableFuture<Void> scanAsync(DiscoveryListener listener) {
+    CompletableFuture<Void> future = discovery.start(listener, false);
+    expire(future, SCAN_DURATION + timeoutMillis, TimeUnit.MILLISECONDS, () -> {
+      if (discovery.cancel(future)) {
+        try {
+          sendCommand("SCAN;STOP");
+        } catch (UncheckedIOException e) {
+          // the gateway is gone, and its scan with it
+        }
+      }
+    });
+    sendCommand("SCAN");
+    return future;
+  }
+
+  /**
+   * Scans for vehicles in the background until {@link #stopDiscovery()} is called.
+   * Each vehicle is passed to the listener once, as soon as its advertisement arrives.
+   *
+   * @return a future that is completed when the discovery is stopped
+   */
+  public CompletableFuture<Void> startDiscovery(DiscoveryListener listener) {
+    CompletableFuture<Void> future = discovery.start(listener, true);
+    sendCommand("SCAN;START");
+    return future;
+  }
+
+  public void stopDiscovery() {
+    if (discovery.stop()) {
+      sendCommand("SCAN;STOP");
+    }
+  }
+
+  void resumeDiscovery() {
+    sendCommand("SCAN;START");
+  }
+
+  /**
+   * Connects to the given vehicle without blocking.
+   * The returned future fails if the gateway reports an error or does not answer within the
+   * given time.
+   */
+  CompletableFuture<Void> connectAsync(Vehicle vehicle, long timeout, TimeUnit unit) {
+    String address = vehicle.getAddress();
+    CompletableFuture<Void> future = new CompletableFuture<>();
+
+    synchronized (pendingConnects) {
+      CompletableFuture<Void> pending = pendingConnects.putIfAbsent(address, future);
+      if (pending != null) {
+        return pending;
+      }
+    }
+
+    future.whenComplete((result, error) -> {
+      if (error != null) {
+        releaseChannel(vehicle);
+      }
+    });
+    expire(future, timeout, unit, () -> removePending(pendingConnects, address, future));
+
+    try {
+      int channel = assignChannel(vehicle);
+      if (framed) {
+        sendCommand(vehicle, "CONNECT;" + address + ";" + channel);
+      }
+      else {
+        reader.route(address, channel);
+        sendCommand(vehicle, "CONNECT;" + address);
+      }
+    } catch (RuntimeException e) {
+      removePending(pendingConnects, address, future);
+      future.completeExceptionally(e);
+    }
+    return future;
+  }
+
+  private int assignChannel(Vehicle vehicle) {
+    synchronized (vehicleChannels) {
+      Integer channel = vehicleChannels.get(vehicle);
+      if (channel == null) {
+        channel = freeChannel();
+        vehicleChannels.put(vehicle, channel);
+        channelVehicles.set(channel, vehicle);
+      }
+      return channel;
+    }
+  }
+
+  private int freeChannel() {
+    for (int channel = 0; channel < channelVehicles.length(); channel++) {
+      if (channelVehicles.get(channel) == null) {
+        return channel;
+      }
+    }
+    throw new IllegalStateException("no free vehicle channel");
+  }
+
+  private void releaseChannel(Vehicle vehicle) {
+    synchronized (vehicleChannels) {
+      Integer channel = vehicleChannels.remove(vehicle);
+      if (channel != null) {
+        channelVehicles.set(channel, null);
+      }
+      reader.unroute(vehicle.getAddress());
+    }
+    releaseQueue(vehicle);
+  }
+
+  /**
+   * Lets the dispatcher drop the vehicle's inbound queue, and its thread if it has one.
+   */
+  private void releaseQueue(Vehicle vehicle) {
+    MessageDispatcher dispatcher = this.dispatcher;
+    if (dispatcher != null) {
+      dispatcher.release(vehicle);
+    }
+  }
+
+  /**
+   * Queues a message for the given vehicle. The message is written by the writer thread.
+   *
+   * @throws IllegalStateException if the vehicle's outbound queue is full
+   */
+  void sendMessage(Vehicle vehicle, Message message) {
+    if (framed && !vehicleChannels.containsKey(vehicle)) {
+      throw new IllegalStateException("vehicle is not connected: " + vehicle.getAddress());
+    }
+    writer.enqueue(vehicle, message);
+  }
+
+  /**
+   * Encodes a message for the given vehicle into the buffer, either as a hex text line or
+   * as a binary frame.
+   *
+   * @return false if the message cannot be sent because the vehicle has no channel
+   */
+  boolean encode(Vehicle vehicle, Message message, ByteBuffer buffer) {
+    if (!framed) {
+      String address = vehicle.getAddress();
+      for (int i = 0; i < address.length(); i++) {
+        buffer.put((byte) address.charAt(i));
+      }
+      buffer.put((byte) ';');
+
+      encodeBuffer.clear();
+      message.writeTo(encodeBuffer);
+      for (int i = 0; i < encodeBuffer.position(); i++) {
+        int b = encodeBuffer.get(i);
+        buffer.put(HEX_DIGITS[(b >> 4) & 0xf]);
+        buffer.put(HEX_DIGITS[b & 0xf]);
+      }
+      buffer.put((byte) '\n');
+      record(vehicle, encodeBuffer, 0, encodeBuffer.position());
+      count(vehicle, message);
+      return true;
+    }
+
+    Integer channel = vehicleChannels.get(vehicle);
+    if (channel == null) {
+      return false;
+    }
+
+    int start = buffer.position();
+    buffer.position(start + 2);
+    buffer.put(channel.byteValue());
+    message.writeTo(buffer);
+    buffer.putShort(start, (short) (buffer.position() - start - 2));
+    record(vehicle, buffer, start + 3, buffer.position());
+    count(vehicle, message);
+    return true;
+  }
+
+  private void count(Vehicle vehicle, Message message) {
+    if (metrics.isEnabled()) {
+      metrics.sent(vehicle, message, System.nanoTime());
+    }
+  }
+
+  /**
+   * Queues a message for several vehicles. The message is encoded once and written by the writer
+   * thread in a single write, as one broadcast if the gateway supports it. Unsent messages of the
+   * same type that would replace each other (see {@link Vehicle#sendMessage(Message)}) are
+   * superseded by the broadcast in the queues of these vehicles.
+   *
+   * @return a future that is completed with the {@link System#nanoTime()} at which the message
+   *         was written for each vehicle; vehicles without a channel are left out
+   * @throws IllegalStateException if too many broadcasts are waiting to be sent
+   */
+  CompletableFuture<Map<Vehicle, Long>> broadcast(List<Vehicle> vehicles, Message message) {
+    ByteBuffer raw = ByteBuffer.allocate(Message.MAX_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    message.writeTo(raw);
+    raw.flip();
+
+    CompletableFuture<Map<Vehicle, Long>> future = new CompletableFuture<>();
+    writer.enqueueBroadcast(vehicles, message, raw, future);
+    return future;
+  }
+
+  /**
+   * Encodes a broadcast into the buffer for as many of the vehicles as fit, starting at the given
+   * index.
+   *
+   * @param raw the raw message from position 0 to its limit
+   * @param encoded receives the vehicles the message was encoded for
+   * @return the index of the first vehicle that did not fit
+   */
+  int encodeBroadcast(List<Vehicle> vehicles, int from, Message message, ByteBuffer raw, ByteBuffer buffer,
+      List<Vehicle> encoded) {
+    int index = from;
+    int size = raw.limit();
+
+    if (broadcasting && framed) {
+      int start = buffer.position();
+      buffer.position(start + 2);
+      buffer.put((byte) NotificationReader.BROADCAST_CHANNEL);
+      int countPosition = buffer.position();
+      buffer.put((byte) 0);
+      int count = 0;
+      for (; index < vehicles.size() && buffer.remaining() > size + 1 && count < 255; index++) {
+        Integer channel = vehicleChannels.get(vehicles.get(index));
+        if (channel != null) {
+          buffer.put(channel.byteValue());
+          encoded.add(vehicles.get(index));
+          count++;
+        }
+      }
+      if (count == 0) {
+        buffer.position(start);
+      }
+      else {
+        buffer.put(countPosition, (byte) count);
+        buffer.put(raw.array(), 0, size);
+        buffer.putShort(start, (short) (buffer.position() - start - 2));
+      }
+    }
+    else if (broadcasting) {
+      int start = buffer.position();
+      putAscii(buffer, "BROADCAST;");
+      int lineSize = 2 * size + 1;
+      for (; index < vehicles.size() && buffer.remaining() > vehicles.get(index).getAddress().length() + 1 + lineSize; index++) {
+        if (!encoded.isEmpty()) {
+          buffer.put((byte) ',');
+        }
+        putAscii(buffer, vehicles.get(index).getAddress());
+        encoded.add(vehicles.get(index));
+      }
+      if (encoded.isEmpty()) {
+        buffer.position(start);
+      }
+      else {
+        buffer.put((byte) ';');
+        putHex(buffer, raw, size);
+        buffer.put((byte) '\n');
+      }
+    }
+    else {
+      for (; index < vehicles.size() && buffer.remaining() >= MessageWriter.MAX_ENCODED_SIZE; index++) {
+        Vehicle vehicle = vehicles.get(index);
+        if (framed) {
+          Integer channel = vehicleChannels.get(vehicle);
+          if (channel == null) {
+            continue;
+          }
+          buffer.putShort((short) (size + 1));
+          buffer.put(channel.byteValue());
+          buffer.put(raw.array(), 0, size);
+        }
+        else {
+          putAscii(buffer, vehicle.getAddress());
+          buffer.put((byte) ';');
+          putHex(buffer, raw, size);
+          buffer.put((byte) '\n');
+        }
+        encoded.add(vehicle);
+      }
+    }
+
+    for (Vehicle vehicle : encoded) {
+      record(vehicle, raw, 0, size);
+      count(vehicle, message);
+    }
+    return index;
+  }
+
+  private static void putAscii(ByteBuffer buffer, String text) {
+    for (int i = 0; i < text.length(); i++) {
+      buffer.put((byte) text.charAt(i));
+    }
+  }
+
+  private static void putHex(ByteBuffer buffer, ByteBuffer data, int size) {
+    for (int i = 0; i < size; i++) {
+      int b = data.get(i);
+      buffer.put(HEX_DIGITS[(b >> 4) & 0xf]);
+      buffer.put(HEX_DIGITS[b & 0xf]);
+    }
+  }
+
+  private void record(Vehicle vehicle, ByteBuffer message, int from, int to) {
+    SessionRecorder recorder = this.recorder;
+    if (recorder != null) {
+      recorder.record(SessionRecorder.SENT, vehicle, message, from, to);
+    }
+  }
+
+  /**
+   * Records all messages received from and sent to vehicles from now on.
+   *
+   * @param recorder recorder to append to, or null to stop recording
+   */
+  public void setRecorder(SessionRecorder recorder) {
+    this.recorder = recorder;
+  }
+
+  private void sendCommand(String command) {
+    synchronized (writeBuffer) {
+      writeBuffer.clear();
+      encodeCommand(command, writeBuffer);
+      write(writeBuffer);
+    }
+  }
+
+  /**
+   * Queues a command to the gateway behind the messages already queued for the given vehicle.
+   * The command is written by the writer thread.
+   */
+  private void sendCommand(Vehicle vehicle, String command) {
+    writer.enqueueCommand(vehicle, command);
+  }
+
+  /**
+   * Encodes a command to the gateway into the buffer, either as a text line or as a frame on the
+   * control channel.
+   */
+  void encodeCommand(String command, ByteBuffer buffer) {
+    if (framed) {
+      buffer.putShort((short) (command.length() + 1));
+      buffer.put((byte) NotificationReader.CONTROL_CHANNEL);
+    }
+    for (int i = 0; i < command.length(); i++) {
+      buffer.put((byte) command.charAt(i));
+    }
+    if (!framed) {
+      buffer.put((byte) '\n');
+    }
+  }
+
+  /**
+   * Writes the buffer's content up to its position to the socket.
+   */
+  void write(ByteBuffer buffer) {
+    synchronized (writeBuffer) {
+      buffer.flip();
+      try {
+        while (buffer.hasRemaining()) {
+          socket.write(buffer);
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+  /**
+   * Returns the message counters and latency histograms of this connector, which are disabled
+   * until {@link Metrics#setEnabled(boolean)} is called.
+   */
+  public Metrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * @return the number of messages waiting to be written to all vehicles
+   */
+  int getQueueDepth() {
+    return writer.getQueueDepth();
+  }
+
+  /**
+   * Sets the number of unsent messages that can be queued per vehicle.
+   */
+  public void setOutboundCapacity(int capacity) {
+    writer.setCapacity(capacity);
+  }
+
+  /**
+   * Enables printing every message sent to a vehicle to System.out.
+   * Messages are printed by the writer thread after they have been written.
+   */
+  public void setLogging(boolean logging) {
+    writer.setLogging(logging);
+  }
+
+  /**
+   * Enables decoding localization updates into a reusable message instance per vehicle, so that
+   * receiving them does not allocate. This is only used while all listeners that receive an
+   * update are {@link TransientMessageListener}s, otherwise every update is a new message.
+   */
+  public void setFlyweightDecoding(boolean flyweightDecoding) {
+    this.flyweightDecoding = flyweightDecoding;
+  }
+
+  private Message decode(Vehicle vehicle, ByteBuffer frame) {
+    if (flyweightDecoding && Vehicle.isTransient(messageListeners.get(vehicle))) {
+      Message message = vehicle.decodeFlyweight(frame);
+      if (message != null) {
+        return message;
+      }
+    }
+    return Message.parse(frame);
+  }
+
+  /**
+   * Runs the message listeners of all vehicles on the reader thread or on dispatch threads.
+   * The messages of one vehicle always reach its listeners one at a time and in order.
+   *
+   * While listeners run on dispatch threads, received messages wait in a queue per vehicle.
+   * If a vehicle's queue is full (see {@link #setInboundCapacity(int)}), its oldest position
+   * update is dropped; other messages such as responses are never dropped. Flyweight decoding
+   * is not used, since queued messages cannot be reused.
+   *
+   * The mode should be chosen before vehicles are connected. Messages that are already queued
+   * when the mode changes are delivered by the previous dispatch threads, which may overlap
+   * with the first messages dispatched in the new mode.
+   *
+   * @param threads number of dispatch threads in {@link DispatchMode#STRIPED} mode, ignored in
+   *        the other modes
+   */
+  public void setDispatchMode(DispatchMode mode, int threads) {
+    MessageDispatcher previous;
+    synchronized (this) {
+      MessageDispatcher next = null;
+      if (mode != DispatchMode.INLINE) {
+        next = new MessageDispatcher(this, mode, threads);
+        next.setCapacity(inboundCapacity);
+      }
+      previous = dispatcher;
+      dispatcher = next;
+    }
+    if (previous != null) {
+      previous.close();
+    }
+  }
+
+  /**
+   * Sets the dispatch mode, using one dispatch thread per processor in
+   * {@link DispatchMode#STRIPED} mode.
+   */
+  public void setDispatchMode(DispatchMode mode) {
+    setDispatchMode(mode, Runtime.getRuntime().availableProcessors());
+  }
+
+  public DispatchMode getDispatchMode() {
+    MessageDispatcher dispatcher = this.dispatcher;
+    return dispatcher == null ? DispatchMode.INLINE : dispatcher.getMode();
+  }
+
+  /**
+   * Sets the number of received messages that can be queued per vehicle before position
+   * updates are dropped, if listeners do not run inline.
+   */
+  public synchronized void setInboundCapacity(int capacity) {
+    this.inboundCapacity = capacity;
+    if (dispatcher != null) {
+      dispatcher.setCapacity(capacity);
+    }
+  }
+
+  /**
+   * @return the number of received messages waiting for their listeners
+   */
+  int getInboundQueueDepth() {
+    MessageDispatcher dispatcher = this.dispatcher;
+    return dispatcher == null ? 0 : dispatcher.getQueueDepth();
+  }
+
+  /**
+   * @return the number of position updates dropped by the current dispatcher
+   */
+  long getDroppedMessages() {
+    MessageDispatcher dispatcher = this.dispatcher;
+    return dispatcher == null ? 0 : dispatcher.getDropped();
+  }
+
+  public void addMessageListener(Vehicle vehicle, MessageListener<? extends Message> listener) {
+    messageListeners.computeIfAbsent(vehicle, v -> new ListenerList<>(new MessageListener<?>[0])).add(listener);
+  }
+
+  public void removeMessageListener(Vehicle vehicle, MessageListener<? extends Message> listener) {
+    ListenerList<MessageListener<?>> listeners = messageListeners.get(vehicle);
+    if (listeners != null) {
+      listeners.remove(listener);
+    }
+  }
+
+  /**
+   * Passes a received message to the vehicle's listeners and measures the time it takes.
+   */
+  void deliver(Vehicle vehicle, Message message) {
+    if (metrics.isEnabled()) {
+      long start = System.nanoTime();
+      fireMessageReceived(vehicle, message);
+      metrics.dispatched(System.nanoTime() - start);
+    }
+    else {
+      fireMessageReceived(vehicle, message);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  public void fireMessageReceived(Vehicle vehicle, Message message) {
+    ListenerList<MessageListener<?>> listeners = messageListeners.get(vehicle);
+    if (listeners != null) {
+      MessageListener<Message>[] current = (MessageListener<Message>[]) listeners.get();
+      for (int i = 0; i < current.length; i++) {
+        current[i].messageReceived(message);
+      }
+    }
+  }
+
+  /**
+   * Disconnects from the given vehicle without blocking.
+   * The returned future fails if the gateway reports an error or does not answer within the
+   * given time.
+   */
+  CompletableFuture<Void> disconnectAsync(Vehicle vehicle, long timeout, TimeUnit unit) {
+    String address = vehicle.getAddress();
+    CompletableFuture<Void> future = new CompletableFuture<>();
+
+    synchronized (pendingDisconnects) {
+      CompletableFuture<Void> pending = pendingDisconnects.putIfAbsent(address, future);
+      if (pending != null) {
+        return pending;
+      }
+    }
+
+    future.thenRun(() -> releaseChannel(vehicle));
+    expire(future, timeout, unit, () -> removePending(pendingDisconnects, address, future));
+
+    try {
+      sendCommand(vehicle, "DISCONNECT;" + address);
+    } catch (RuntimeException e) {
+      removePending(pendingDisconnects, address, future);
+      future.completeExceptionally(e);
+    }
+    return future;
+  }
+
+  /**
+   * Completes the pending connect or disconnect a gateway response belongs to.
+   * Responses that do not name the vehicle address complete the oldest pending request.
+   */
+  private void handleResponse(Map<String, CompletableFuture<Void>> pending, String response) {
+    String[] parts = response.split(";");
+    CompletableFuture<Void> future;
+
+    synchronized (pending) {
+      String address = parts.length > 2 ? parts[2] : null;
+      if (address == null && !pending.isEmpty()) {
+        address = pending.keySet().iterator().next();
+      }
+      future = address == null ? null : pending.remove(address);
+    }
+
+    if (future != null) {
+      if (parts.length > 1 && parts[1].equals("SUCCESS")) {
+        future.complete(null);
+      }
+      else {
+        future.completeExceptionally(new RuntimeException(response));
+      }
+    }
+  }
+
+  private void removePending(Map<String, CompletableFuture<Void>> pending, String address,
+      CompletableFuture<Void> future) {
+    synchronized (pending) {
+      pending.remove(address, future);
+    }
+  }
+
+  /**
+   * Fails the given future with a TimeoutException if it is not completed in time.
+   *
+   * @param onTimeout invoked before the future is failed
+   */
+  <T> CompletableFuture<T> expire(CompletableFuture<T> future, long timeout, TimeUnit unit, Runnable onTimeout) {
+    ScheduledFuture<?> task = scheduler.schedule(() -> {
+      if (!future.isDone()) {
+        onTimeout.run();
+        future.completeExceptionally(new TimeoutException("no response within " + timeout + " " + unit));
+      }
+    }, timeout, unit);
+    future.whenComplete((result, error) -> task.cancel(false));
+    return future;
+  }
+
+  /**
+   * Returns the time to wait for responses if no other timeout is given.
+   */
+  public long getTimeout(TimeUnit unit) {
+    return unit.convert(timeoutMillis, TimeUnit.MILLISECONDS);
+  }
+
+  public void setTimeout(long timeout, TimeUnit unit) {
+    this.timeoutMillis = unit.toMillis(timeout);
+  }
+
+  /**
+   * Returns whether the socket to the gateway is open. It is closed if the gateway ends the
+   * connection or the connection fails, until {@link #reconnect()} succeeds.
+   */
+  public boolean isConnected() {
+    return connected;
+  }
+
+  /**
+   * Adds a listener that is notified on the reader thread when the socket to the gateway is lost.
+   */
+  public void addConnectionListener(ConnectionListener listener) {
+    connectionListeners.add(listener);
+  }
+
+  public void removeConnectionListener(ConnectionListener listener) {
+    connectionListeners.remove(listener);
+  }
+
+  private void connectionLost() {
+    if (closed) {
+      return;
+    }
+    connected = false;
+    failPending(pendingConnects);
+    failPending(pendingDisconnects);
+    for (ConnectionListener listener : connectionListeners.get()) {
+      try {
+        listener.connectionLost(this);
+      } catch (RuntimeException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  private void failPending(Map<String, CompletableFuture<Void>> pending) {
+    List<CompletableFuture<Void>> futures;
+    synchronized (pending) {
+      futures = new ArrayList<>(pending.values());
+      pending.clear();
+    }
+    for (CompletableFuture<Void> future : futures) {
+      future.completeExceptionally(new IOException("connection to gateway lost"));
+    }
+  }
+
+  /**
+   * Replaces the socket to the gateway with a new one and negotiates the connection again.
+   * All vehicles are disconnected by the gateway when its socket is lost, so they have to be
+   * connected again. A continuous discovery is resumed.
+   *
+   * @throws IOException if the gateway cannot be reached
+   */
+  public synchronized void reconnect() throws IOException {
+    if (closed) {
+      throw new IllegalStateException("connector is closed");
+    }
+    connected = false;
+    NotificationReader previous = reader;
+    previous.close();
+    closeSocket();
+
+    synchronized (vehicleChannels) {
+      for (Vehicle vehicle : vehicleChannels.keySet()) {
+        previous.unroute(vehicle.getAddress());
+        releaseQueue(vehicle);
+      }
+      vehicleChannels.clear();
+      for (int channel = 0; channel < channelVehicles.length(); channel++) {
+        channelVehicles.set(channel, null);
+      }
+    }
+
+    open();
+    connected = true;
+    if (discovery.isContinuous()) {
+      resumeDiscovery();
+    }
+  }
+
+  private void closeSocket() {
+    if (socketOpen.getAndSet(false)) {
+      Resources.socketClosed();
+    }
+    try {
+      socket.close();
+    } catch (IOException e) {
+      // the socket is no longer used
+    }
+  }
+
+  /**
+   * Closes the socket and stops all threads of this connector. Messages that are already queued
+   * are written first. Closing a closed connector has no effect.
+   */
+  public synchronized void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    connected = false;
+    metrics.unregisterMBean();
+    writer.close();
+    reader.close();
+    setDispatchMode(DispatchMode.INLINE);
+    scheduler.shutdownNow();
+    closeSocket();
+  }
+}
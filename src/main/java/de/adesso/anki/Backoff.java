@@ -0,0 +1,31 @@
+package de.adesso.anki;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Computes the delays between retries of a failed operation.
+ *
+ * Delays grow exponentially up to a maximum. Each delay is randomly shortened by up to half, so
+ * that clients that failed at the same time, e.g. all vehicles of a lost gateway, do not retry in
+ * lockstep.
+ */
+class Backoff {
+  private Backoff() {
+  }
+
+  /**
+   * @param attempt number of failed attempts so far, starting at 1
+   * @param base delay after the first failed attempt
+   * @param max upper bound of the delay
+   * @return the delay before the next attempt, in the unit of base and max
+   */
+  static long delay(int attempt, long base, long max) {
+    long delay = max;
+    int shift = attempt - 1;
+    if (shift < 62 && base <= (max >> shift)) {
+      delay = base << shift;
+    }
+    long half = delay / 2;
+    return half + ThreadLocalRandom.current().nextLong(delay - half + 1);
+  }
+}
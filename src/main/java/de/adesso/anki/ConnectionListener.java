@@ -0,0 +1,16 @@
+package de.adesso.anki;
+
+import java.util.EventListener;
+
+/**
+ * The listener interface for receiving notifications about the socket to the gateway.
+ */
+public interface ConnectionListener extends EventListener {
+
+  /**
+   * Invoked once when the gateway ends the connection or the connection fails. Runs on the
+   * notification reader thread of the lost socket, so it should not block;
+   * {@link AnkiConnector#reconnect()} should be called from another thread.
+   */
+  public void connectionLost(AnkiConnector anki);
+}
@@ -0,0 +1,16 @@
+package de.adesso.anki;
+
+import java.util.EventListener;
+
+/**
+ * The listener interface for receiving vehicles while scanning.
+ */
+public interface DiscoveryListener extends EventListener {
+
+  /**
+   * Invoked once per scan for every vehicle that is found, as soon as its advertisement arrives.
+   * Runs on the notification reader thread, so it must not wait for responses from the gateway.
+   * Use the non-blocking vehicle methods (e.g. {@link Vehicle#connectAsync()}) instead.
+   */
+  public void vehicleDiscovered(Vehicle vehicle);
+}
@@ -0,0 +1,28 @@
+package de.adesso.anki;
+
+/**
+ * Selects the threads that run the message listeners of a connector's vehicles,
+ * see {@link AnkiConnector#setDispatchMode(DispatchMode, int)}.
+ *
+ * In every mode, the messages of one vehicle are passed to its listeners one at a time and in the
+ * order they were received.
+ */
+public enum DispatchMode {
+  /**
+   * Listeners run on the reader thread. A slow listener delays reading for all vehicles, but no
+   * message is ever queued and localization updates can be decoded into reusable messages.
+   */
+  INLINE,
+
+  /**
+   * Listeners run on a fixed number of threads, and each vehicle is assigned to one of them.
+   * Vehicles on different threads proceed in parallel.
+   */
+  STRIPED,
+
+  /**
+   * Listeners of each vehicle run on a thread of their own, so a slow listener only delays the
+   * messages of its own vehicle.
+   */
+  THREAD_PER_VEHICLE
+}
@@ -0,0 +1,93 @@
+package de.adesso.anki;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import de.adesso.anki.messages.Message;
+
+/**
+ * Sends messages to a group of vehicles at the same time, e.g. to start a race, stop all
+ * vehicles or switch their lights together.
+ *
+ * A message for the fleet is encoded once per connector and written in a single write, instead
+ * of being queued for each vehicle. If the gateway supports broadcasts
+ * ({@link AnkiConnector#isBroadcasting()}), the message is even sent over the socket once and the
+ * gateway writes it to each vehicle. Unsent messages that the fleet message replaces are dropped
+ * from the vehicles' queues, so that e.g. a stop is not followed by an older speed change. Other
+ * messages still queued for a vehicle, e.g. a light pattern, are written after the fleet message.
+ *
+ * <pre>
+ * Fleet fleet = new Fleet(vehicles);
+ * fleet.sendMessage(new SetSpeedMessage(600, 12500))
+ *     .thenAccept(times -&gt; System.out.println(times));
+ * </pre>
+ */
+public class Fleet {
+  private final List<Vehicle> vehicles;
+
+  public Fleet(Collection<Vehicle> vehicles) {
+    this.vehicles = new CopyOnWriteArrayList<>(vehicles);
+  }
+
+  public Fleet() {
+    this(Collections.emptyList());
+  }
+
+  public void add(Vehicle vehicle) {
+    if (!vehicles.contains(vehicle)) {
+      vehicles.add(vehicle);
+    }
+  }
+
+  public void remove(Vehicle vehicle) {
+    vehicles.remove(vehicle);
+  }
+
+  public List<Vehicle> getVehicles() {
+    return Collections.unmodifiableList(new ArrayList<>(vehicles));
+  }
+
+  /**
+   * Sends a message to all vehicles of the fleet without blocking.
+   *
+   * @return a future that is completed once the message is written, with the
+   *         {@link System#nanoTime()} at which it was written for each vehicle, in the order of
+   *         the fleet; vehicles that are not connected are left out
+   * @throws IllegalStateException if too many messages are waiting to be sent
+   */
+  public CompletableFuture<Map<Vehicle, Long>> sendMessage(Message message) {
+    List<Vehicle> members = new ArrayList<>(vehicles);
+    Map<AnkiConnector, List<Vehicle>> byConnector = new IdentityHashMap<>();
+    for (Vehicle vehicle : members) {
+      vehicle.remember(message);
+      byConnector.computeIfAbsent(vehicle.getConnector(), (anki) -> new ArrayList<>()).add(vehicle);
+    }
+
+    List<CompletableFuture<Map<Vehicle, Long>>> writes = new ArrayList<>();
+    for (Map.Entry<AnkiConnector, List<Vehicle>> entry : byConnector.entrySet()) {
+      writes.add(entry.getKey().broadcast(entry.getValue(), message));
+    }
+
+    return CompletableFuture.allOf(writes.toArray(new CompletableFuture<?>[0])).thenApply((done) -> {
+      Map<Vehicle, Long> written = new LinkedHashMap<>();
+      for (CompletableFuture<Map<Vehicle, Long>> write : writes) {
+        written.putAll(write.join());
+      }
+      Map<Vehicle, Long> times = new LinkedHashMap<>();
+      for (Vehicle vehicle : members) {
+        Long time = written.get(vehicle);
+        if (time != null) {
+          times.put(vehicle, time);
+        }
+      }
+      return times;
+    });
+  }
+}
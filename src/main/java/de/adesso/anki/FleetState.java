@@ -0,0 +1,257 @@
+package de.adesso.anki;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.StampedLock;
+
+import de.adesso.anki.messages.BatteryLevelResponseMessage;
+import de.adesso.anki.messages.LocalizationPositionUpdateMessage;
+import de.adesso.anki.messages.LocalizationTransitionUpdateMessage;
+import de.adesso.anki.messages.OffsetFromRoadCenterUpdateMessage;
+import de.adesso.anki.messages.VehicleDelocalizedMessage;
+
+/**
+ * Keeps the latest position, transition, offset, speed and battery level of every tracked vehicle.
+ *
+ * Updates are copied into primitive fields by transient listeners, so they work with flyweight
+ * decoding. Every vehicle publishes its updates through a sequence lock of its own. It is only
+ * taken by the thread that delivers the vehicle's messages, one at a time, so writers never wait
+ * for each other. Readers take optimistic snapshots and retry if the vehicle was updated
+ * meanwhile, so they never block the writers either.
+ *
+ * A snapshot of the whole fleet shows all vehicles at the same moment. It copies every vehicle
+ * optimistically and then validates all their sequences, so it is retried if any vehicle was
+ * updated while it was copied. After several retries it briefly blocks the writers instead.
+ */
+public class FleetState {
+  private static final int OPTIMISTIC_SNAPSHOTS = 8;
+
+  private final Map<Vehicle, Entry> entries = new ConcurrentHashMap<>();
+  private final ListenerList<Entry> order = new ListenerList<>(new Entry[0]);
+
+  /**
+   * Starts keeping the state of the given vehicle, from its next message on.
+   */
+  public void track(Vehicle vehicle) {
+    Entry entry = new Entry(vehicle);
+    if (entries.putIfAbsent(vehicle, entry) == null) {
+      order.add(entry);
+      entry.register();
+    }
+  }
+
+  public void untrack(Vehicle vehicle) {
+    Entry entry = entries.remove(vehicle);
+    if (entry != null) {
+      entry.unregister();
+      order.remove(entry);
+    }
+  }
+
+  /**
+   * @return the latest state of the vehicle, or null if it is not tracked
+   */
+  public VehicleStatus get(Vehicle vehicle) {
+    VehicleStatus status = new VehicleStatus();
+    return read(vehicle, status) ? status : null;
+  }
+
+  /**
+   * Copies the latest state of the vehicle into the given status without allocating.
+   *
+   * @return false if the vehicle is not tracked
+   */
+  public boolean read(Vehicle vehicle, VehicleStatus status) {
+    Entry entry = entries.get(vehicle);
+    if (entry == null) {
+      return false;
+    }
+    entry.read(status);
+    return true;
+  }
+
+  /**
+   * @return the latest state of all tracked vehicles at the same moment, in the order they were
+   *         tracked
+   */
+  public List<VehicleStatus> snapshot() {
+    Entry[] current = order.get();
+    VehicleStatus[] statuses = new VehicleStatus[current.length];
+    for (int i = 0; i < statuses.length; i++) {
+      statuses[i] = new VehicleStatus();
+    }
+
+    long[] stamps = new long[current.length];
+    boolean copied = false;
+    for (int attempt = 0; attempt < OPTIMISTIC_SNAPSHOTS && !copied; attempt++) {
+      copied = copyOptimistic(current, statuses, stamps);
+      if (!copied) {
+        Thread.yield();
+      }
+    }
+    if (!copied) {
+      copyLocked(current, statuses, stamps);
+    }
+
+    List<VehicleStatus> snapshot = new ArrayList<>(statuses.length);
+    for (VehicleStatus status : statuses) {
+      snapshot.add(status);
+    }
+    return snapshot;
+  }
+
+  /**
+   * Copies all vehicles and checks that none of them was updated since its copy was started. Every
+   * copy then holds the vehicle's state at the moment the last copy was finished.
+   *
+   * @return false if a vehicle was updated meanwhile
+   */
+  private static boolean copyOptimistic(Entry[] entries, VehicleStatus[] statuses, long[] stamps) {
+    for (int i = 0; i < entries.length; i++) {
+      stamps[i] = entries[i].sequence.tryOptimisticRead();
+      if (stamps[i] == 0) {
+        return false;
+      }
+      statuses[i].copyFrom(entries[i].status);
+    }
+    for (int i = 0; i < entries.length; i++) {
+      if (!entries[i].sequence.validate(stamps[i])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Copies all vehicles while holding the read locks of all of them. Writers hold one lock at a
+   * time, so they cannot deadlock with this.
+   */
+  private static void copyLocked(Entry[] entries, VehicleStatus[] statuses, long[] stamps) {
+    int locked = 0;
+    try {
+      for (; locked < entries.length; locked++) {
+        stamps[locked] = entries[locked].sequence.readLock();
+      }
+      for (int i = 0; i < entries.length; i++) {
+        statuses[i].copyFrom(entries[i].status);
+      }
+    } finally {
+      for (int i = 0; i < locked; i++) {
+        entries[i].sequence.unlockRead(stamps[i]);
+      }
+    }
+  }
+
+  private static class Entry {
+    final Vehicle vehicle;
+    final VehicleStatus status;
+    final StampedLock sequence = new StampedLock();
+
+    final TransientMessageListener<LocalizationPositionUpdateMessage> positionListener = this::onPosition;
+    final TransientMessageListener<LocalizationTransitionUpdateMessage> transitionListener = this::onTransition;
+    final TransientMessageListener<OffsetFromRoadCenterUpdateMessage> offsetListener = this::onOffset;
+    final TransientMessageListener<BatteryLevelResponseMessage> batteryListener = this::onBattery;
+    final TransientMessageListener<VehicleDelocalizedMessage> delocalizedListener = this::onDelocalized;
+
+    Entry(Vehicle vehicle) {
+      this.vehicle = vehicle;
+      this.status = new VehicleStatus(vehicle);
+    }
+
+    /**
+     * Copies a consistent state of this vehicle into the given status.
+     */
+    void read(VehicleStatus copy) {
+      while (true) {
+        long stamp = sequence.tryOptimisticRead();
+        copy.copyFrom(status);
+        if (sequence.validate(stamp)) {
+          return;
+        }
+        Thread.yield();
+      }
+    }
+
+    void register() {
+      vehicle.addMessageListener(LocalizationPositionUpdateMessage.class, positionListener);
+      vehicle.addMessageListener(LocalizationTransitionUpdateMessage.class, transitionListener);
+      vehicle.addMessageListener(OffsetFromRoadCenterUpdateMessage.class, offsetListener);
+      vehicle.addMessageListener(BatteryLevelResponseMessage.class, batteryListener);
+      vehicle.addMessageListener(VehicleDelocalizedMessage.class, delocalizedListener);
+    }
+
+    void unregister() {
+      vehicle.removeMessageListener(LocalizationPositionUpdateMessage.class, positionListener);
+      vehicle.removeMessageListener(LocalizationTransitionUpdateMessage.class, transitionListener);
+      vehicle.removeMessageListener(OffsetFromRoadCenterUpdateMessage.class, offsetListener);
+      vehicle.removeMessageListener(BatteryLevelResponseMessage.class, batteryListener);
+      vehicle.removeMessageListener(VehicleDelocalizedMessage.class, delocalizedListener);
+    }
+
+    void onPosition(LocalizationPositionUpdateMessage message) {
+      long time = System.nanoTime();
+      long stamp = sequence.writeLock();
+      try {
+        status.localized = true;
+        status.roadPieceId = message.getRoadPieceId();
+        status.locationId = message.getLocationId();
+        status.offsetFromRoadCenter = message.getOffsetFromRoadCenter();
+        status.speed = message.getSpeed();
+        status.reverse = message.isParsedReverse();
+        status.positionTime = time;
+      } finally {
+        sequence.unlockWrite(stamp);
+      }
+    }
+
+    void onTransition(LocalizationTransitionUpdateMessage message) {
+      long time = System.nanoTime();
+      long stamp = sequence.writeLock();
+      try {
+        status.transitionRoadPieceId = message.getRoadPieceId();
+        status.prevRoadPieceId = message.getPrevRoadPieceId();
+        status.leftWheelDistance = message.getLeftWheelDistance();
+        status.rightWheelDistance = message.getRightWheelDistance();
+        status.transitionCount++;
+        status.transitionTime = time;
+      } finally {
+        sequence.unlockWrite(stamp);
+      }
+    }
+
+    void onOffset(OffsetFromRoadCenterUpdateMessage message) {
+      long time = System.nanoTime();
+      long stamp = sequence.writeLock();
+      try {
+        status.offsetFromRoadCenter = message.getOffsetFromRoadCenter();
+        status.laneChangeId = message.getLaneChangeId();
+        status.offsetTime = time;
+      } finally {
+        sequence.unlockWrite(stamp);
+      }
+    }
+
+    void onBattery(BatteryLevelResponseMessage message) {
+      long time = System.nanoTime();
+      long stamp = sequence.writeLock();
+      try {
+        status.batteryLevel = message.getBatteryLevel();
+        status.batteryTime = time;
+      } finally {
+        sequence.unlockWrite(stamp);
+      }
+    }
+
+    void onDelocalized(VehicleDelocalizedMessage message) {
+      long stamp = sequence.writeLock();
+      try {
+        status.localized = false;
+        status.speed = 0;
+      } finally {
+        sequence.unlockWrite(stamp);
+      }
+    }
+  }
+}
@@ -0,0 +1,19 @@
+package de.adesso.anki;
+
+import java.nio.ByteBuffer;
+import java.util.EventListener;
+
+/**
+ * The listener interface for receiving binary frames from NotificationReader.
+ */
+public interface FrameListener extends EventListener {
+
+  /**
+   * Invoked for every frame addressed to a vehicle channel.
+   * The buffer is only valid for the duration of the call and must not be retained.
+   *
+   * @param channel vehicle channel the frame was sent on
+   * @param frame raw Anki message, positioned at the message size byte
+   */
+  public void onFrame(int channel, ByteBuffer frame);
+}
@@ -0,0 +1,17 @@
+package de.adesso.anki;
+
+import java.util.EventListener;
+
+/**
+ * The listener interface for receiving changes of a vehicle's health from a {@link HealthMonitor}.
+ */
+public interface HealthListener extends EventListener {
+
+  /**
+   * Invoked when the state of a tracked vehicle changes. Runs on the monitor's thread or on the
+   * thread that received the message causing the change, so it must not block.
+   *
+   * @param health a snapshot of the vehicle's health after the change
+   */
+  public void healthChanged(Vehicle vehicle, VehicleHealth health);
+}
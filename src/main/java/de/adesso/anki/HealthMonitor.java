@@ -0,0 +1,385 @@
+package de.adesso.anki;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import de.adesso.anki.VehicleHealth.State;
+import de.adesso.anki.messages.LocalizationPositionUpdateMessage;
+import de.adesso.anki.messages.LocalizationTransitionUpdateMessage;
+import de.adesso.anki.messages.VehicleDelocalizedMessage;
+
+/**
+ * Watches the connection to vehicles and restores it when it is lost.
+ *
+ * The monitor pings every tracked vehicle periodically and measures the round trip. A vehicle
+ * that misses several pings in a row is disconnected and connected again. If the socket to the
+ * gateway is lost, the connector is reconnected and all its tracked vehicles are connected again.
+ * Failed attempts are retried with exponentially growing, jittered delays. Once a vehicle is
+ * connected again, the last speed, lane change and offset sent to it are sent again
+ * (see {@link Vehicle#replayCommands()}), so that it continues to drive as before.
+ *
+ * Vehicles that report being delocalized are marked as {@link State#DELOCALIZED} until they
+ * report their position again.
+ *
+ * <pre>
+ * HealthMonitor monitor = new HealthMonitor();
+ * monitor.addHealthListener((vehicle, health) -&gt; System.out.println(vehicle + ": " + health));
+ * monitor.track(vehicle);
+ * </pre>
+ */
+public class HealthMonitor implements Closeable {
+  private final ScheduledExecutorService scheduler;
+  private final Map<Vehicle, Tracked> tracked;
+  private final Map<AnkiConnector, ConnectionListener> connectors;
+  private final ListenerList<HealthListener> listeners;
+
+  private volatile long intervalNanos = TimeUnit.SECONDS.toNanos(1);
+  private volatile long pingTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(500);
+  private volatile int maxMissedPings = 3;
+  private volatile long backoffBaseNanos = TimeUnit.MILLISECONDS.toNanos(100);
+  private volatile long backoffMaxNanos = TimeUnit.SECONDS.toNanos(5);
+  private volatile boolean closed;
+
+  public HealthMonitor() {
+    tracked = new ConcurrentHashMap<>();
+    connectors = new ConcurrentHashMap<>();
+    listeners = new ListenerList<>(new HealthListener[0]);
+    scheduler = Executors.newSingleThreadScheduledExecutor(Resources.threadFactory("anki-health"));
+    scheduler.schedule(this::heartbeat, intervalNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Sets the time between two pings of a vehicle.
+   */
+  public void setInterval(long interval, TimeUnit unit) {
+    this.intervalNanos = unit.toNanos(interval);
+  }
+
+  /**
+   * Sets the time after which an unanswered ping counts as missed.
+   */
+  public void setPingTimeout(long timeout, TimeUnit unit) {
+    this.pingTimeoutNanos = unit.toNanos(timeout);
+  }
+
+  /**
+   * Sets the number of pings in a row a vehicle may miss before it is reconnected.
+   */
+  public void setMaxMissedPings(int maxMissedPings) {
+    if (maxMissedPings < 1) {
+      throw new IllegalArgumentException("at least one ping must be missed: " + maxMissedPings);
+    }
+    this.maxMissedPings = maxMissedPings;
+  }
+
+  /**
+   * Sets the delay after the first failed reconnect and the maximum delay between later ones.
+   */
+  public void setBackoff(long base, long max, TimeUnit unit) {
+    this.backoffBaseNanos = unit.toNanos(base);
+    this.backoffMaxNanos = unit.toNanos(max);
+  }
+
+  /**
+   * Starts watching a connected vehicle.
+   */
+  public void track(Vehicle vehicle) {
+    if (closed) {
+      throw new IllegalStateException("monitor is closed");
+    }
+    Tracked added = new Tracked(vehicle);
+    if (tracked.putIfAbsent(vehicle, added) != null) {
+      return;
+    }
+    vehicle.addMessageListener(VehicleDelocalizedMessage.class, added.delocalized);
+    vehicle.addMessageListener(LocalizationPositionUpdateMessage.class, added.positioned);
+    vehicle.addMessageListener(LocalizationTransitionUpdateMessage.class, added.transitioned);
+
+    connectors.computeIfAbsent(vehicle.getConnector(), (anki) -> {
+      ConnectionListener listener = this::connectionLost;
+      anki.addConnectionListener(listener);
+      return listener;
+    });
+  }
+
+  /**
+   * Stops watching a vehicle.
+   */
+  public void untrack(Vehicle vehicle) {
+    Tracked removed = tracked.remove(vehicle);
+    if (removed == null) {
+      return;
+    }
+    vehicle.removeMessageListener(VehicleDelocalizedMessage.class, removed.delocalized);
+    vehicle.removeMessageListener(LocalizationPositionUpdateMessage.class, removed.positioned);
+    vehicle.removeMessageListener(LocalizationTransitionUpdateMessage.class, removed.transitioned);
+
+    AnkiConnector anki = vehicle.getConnector();
+    if (tracked(anki).isEmpty()) {
+      ConnectionListener listener = connectors.remove(anki);
+      if (listener != null) {
+        anki.removeConnectionListener(listener);
+      }
+    }
+  }
+
+  /**
+   * @return the current health of the vehicle, or null if it is not tracked
+   */
+  public VehicleHealth getHealth(Vehicle vehicle) {
+    Tracked entry = tracked.get(vehicle);
+    return entry == null ? null : entry.snapshot();
+  }
+
+  public void addHealthListener(HealthListener listener) {
+    listeners.add(listener);
+  }
+
+  public void removeHealthListener(HealthListener listener) {
+    listeners.remove(listener);
+  }
+
+  private List<Tracked> tracked(AnkiConnector anki) {
+    List<Tracked> result = new ArrayList<>();
+    for (Tracked entry : tracked.values()) {
+      if (entry.vehicle.getConnector() == anki) {
+        result.add(entry);
+      }
+    }
+    return result;
+  }
+
+  private void heartbeat() {
+    for (Tracked entry : tracked.values()) {
+      if (entry.vehicle.getConnector().isConnected() && entry.startPing()) {
+        long start = System.nanoTime();
+        entry.vehicle.ping(pingTimeoutNanos, TimeUnit.NANOSECONDS)
+            .whenComplete((response, error) -> pinged(entry, error == null ? System.nanoTime() - start : -1));
+      }
+    }
+    schedule(this::heartbeat, intervalNanos);
+  }
+
+  /**
+   * @param roundTrip round trip time of the ping, or -1 if it was missed
+   */
+  private void pinged(Tracked entry, long roundTrip) {
+    boolean reconnect = false;
+    boolean changed;
+    synchronized (entry) {
+      entry.pinging = false;
+      if (entry.state == State.RECONNECTING || !entry.vehicle.getConnector().isConnected()) {
+        // the ping was lost together with the connection
+        return;
+      }
+      if (roundTrip >= 0) {
+        entry.roundTrip = roundTrip;
+        entry.missed = 0;
+        changed = entry.update(entry.state == State.UNRESPONSIVE ? State.CONNECTED : entry.state);
+      }
+      else {
+        entry.missed++;
+        entry.totalMissed++;
+        reconnect = entry.missed >= maxMissedPings;
+        changed = reconnect && entry.update(State.UNRESPONSIVE);
+      }
+    }
+    if (changed) {
+      fireHealthChanged(entry);
+    }
+    if (reconnect) {
+      reconnect(entry, 1, true);
+    }
+  }
+
+  /**
+   * Connects a vehicle again and sends it its last commands once it is connected.
+   *
+   * @param disconnect whether the vehicle has to be disconnected first, because the gateway may
+   *        still consider it connected
+   */
+  private void reconnect(Tracked entry, int attempt, boolean disconnect) {
+    if (closed || tracked.get(entry.vehicle) != entry) {
+      return;
+    }
+    Vehicle vehicle = entry.vehicle;
+    if (!vehicle.getConnector().isConnected()) {
+      // the vehicle is reconnected together with its connector
+      return;
+    }
+    if (entry.changeState(State.RECONNECTING)) {
+      fireHealthChanged(entry);
+    }
+
+    try {
+      CompletableFuture<Void> disconnected = disconnect
+          ? vehicle.disconnectAsync().handle((result, error) -> (Void) null)
+          : CompletableFuture.completedFuture(null);
+      disconnected.thenCompose((result) -> vehicle.connectAsync())
+          .whenComplete((result, error) -> {
+            if (error == null) {
+              vehicle.replayCommands();
+              reconnected(entry);
+            }
+            else {
+              schedule(() -> reconnect(entry, attempt + 1, true), backoff(attempt));
+            }
+          });
+    } catch (RuntimeException e) {
+      schedule(() -> reconnect(entry, attempt + 1, true), backoff(attempt));
+    }
+  }
+
+  private void reconnected(Tracked entry) {
+    boolean changed;
+    synchronized (entry) {
+      entry.missed = 0;
+      entry.reconnects++;
+      changed = entry.update(State.CONNECTED);
+    }
+    if (changed) {
+      fireHealthChanged(entry);
+    }
+  }
+
+  private void connectionLost(AnkiConnector anki) {
+    for (Tracked entry : tracked(anki)) {
+      if (entry.changeState(State.RECONNECTING)) {
+        fireHealthChanged(entry);
+      }
+    }
+    schedule(() -> reconnect(anki, 1), 0);
+  }
+
+  private void reconnect(AnkiConnector anki, int attempt) {
+    if (closed || !connectors.containsKey(anki)) {
+      return;
+    }
+    try {
+      anki.reconnect();
+    } catch (IOException e) {
+      schedule(() -> reconnect(anki, attempt + 1), backoff(attempt));
+      return;
+    } catch (IllegalStateException e) {
+      // the connector was closed
+      return;
+    }
+    for (Tracked entry : tracked(anki)) {
+      reconnect(entry, 1, false);
+    }
+  }
+
+  private long backoff(int attempt) {
+    return Backoff.delay(attempt, backoffBaseNanos, backoffMaxNanos);
+  }
+
+  private void schedule(Runnable task, long delayNanos) {
+    try {
+      scheduler.schedule(task, delayNanos, TimeUnit.NANOSECONDS);
+    } catch (RejectedExecutionException e) {
+      // the monitor is closed
+    }
+  }
+
+  private void fireHealthChanged(Tracked entry) {
+    VehicleHealth health = entry.snapshot();
+    for (HealthListener listener : listeners.get()) {
+      try {
+        listener.healthChanged(entry.vehicle, health);
+      } catch (RuntimeException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  /**
+   * Stops watching all vehicles. Reconnects in progress are not retried.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    scheduler.shutdownNow();
+    for (Vehicle vehicle : new ArrayList<>(tracked.keySet())) {
+      untrack(vehicle);
+    }
+  }
+
+  private class Tracked {
+    final Vehicle vehicle;
+    final TransientMessageListener<VehicleDelocalizedMessage> delocalized;
+    final TransientMessageListener<LocalizationPositionUpdateMessage> positioned;
+    final TransientMessageListener<LocalizationTransitionUpdateMessage> transitioned;
+
+    volatile State state = State.CONNECTED;
+    long roundTrip = -1;
+    int missed;
+    long totalMissed;
+    int reconnects;
+    long changed = System.nanoTime();
+    boolean pinging;
+
+    Tracked(Vehicle vehicle) {
+      this.vehicle = vehicle;
+      this.delocalized = (message) -> {
+        if (changeState(State.DELOCALIZED)) {
+          fireHealthChanged(this);
+        }
+      };
+      this.positioned = (message) -> localized();
+      this.transitioned = (message) -> localized();
+    }
+
+    private void localized() {
+      // checked before locking, since every position update passes here
+      if (state == State.DELOCALIZED && changeState(State.CONNECTED)) {
+        fireHealthChanged(this);
+      }
+    }
+
+    synchronized boolean startPing() {
+      if (pinging || state == State.RECONNECTING) {
+        return false;
+      }
+      pinging = true;
+      return true;
+    }
+
+    /**
+     * Changes the state, except that a reconnect in progress is only ended by
+     * {@link HealthMonitor#reconnected(Tracked)}.
+     *
+     * @return whether the state changed
+     */
+    synchronized boolean changeState(State next) {
+      if (state == State.RECONNECTING && next != State.RECONNECTING) {
+        return false;
+      }
+      return update(next);
+    }
+
+    /**
+     * Must be called while holding this entry's lock.
+     */
+    boolean update(State next) {
+      if (state == next) {
+        return false;
+      }
+      state = next;
+      changed = System.nanoTime();
+      return true;
+    }
+
+    synchronized VehicleHealth snapshot() {
+      return new VehicleHealth(state, roundTrip, missed, totalMissed, reconnects, changed);
+    }
+  }
+}
@@ -0,0 +1,53 @@
+package de.adesso.anki;
+
+import java.util.Arrays;
+
+/**
+ * Holds listeners in an array that is copied on every modification.
+ *
+ * Dispatching reads the current array without locking or allocating, while adding and removing
+ * listeners from other threads never affects a dispatch that is already in progress.
+ *
+ * @param <T> listener type
+ */
+class ListenerList<T> {
+  private volatile T[] listeners;
+
+  /**
+   * @param empty empty array of the listener type
+   */
+  ListenerList(T[] empty) {
+    this.listeners = empty;
+  }
+
+  synchronized void add(T listener) {
+    T[] current = listeners;
+    T[] copy = Arrays.copyOf(current, current.length + 1);
+    copy[current.length] = listener;
+    listeners = copy;
+  }
+
+  synchronized boolean remove(T listener) {
+    T[] current = listeners;
+    for (int i = 0; i < current.length; i++) {
+      if (current[i].equals(listener)) {
+        T[] copy = Arrays.copyOf(current, current.length - 1);
+        System.arraycopy(current, i + 1, copy, i, current.length - i - 1);
+        listeners = copy;
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the current listeners. The returned array must not be modified.
+   */
+  T[] get() {
+    return listeners;
+  }
+
+  boolean isEmpty() {
+    return listeners.length == 0;
+  }
+}
@@ -0,0 +1,300 @@
+package de.adesso.anki;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import de.adesso.anki.messages.LocalizationPositionUpdateMessage;
+import de.adesso.anki.messages.Message;
+
+/**
+ * Passes received messages to the vehicle listeners on worker threads instead of the reader
+ * thread.
+ *
+ * Every vehicle has a queue of received messages that is drained by one worker at a time, which
+ * keeps each vehicle's messages in order. A worker takes turns between its ready vehicles after a
+ * few messages each, so a busy vehicle cannot starve the others on the same worker.
+ *
+ * When a vehicle's queue is full, its oldest position update is dropped to make room, since a
+ * newer one supersedes it. If no position update is queued, an incoming position update is
+ * dropped instead. All other messages, in particular responses to requests, are never dropped
+ * and are queued beyond the capacity.
+ *
+ * When a vehicle is disconnected, its queue is dropped once the queued messages are delivered.
+ * In {@link DispatchMode#THREAD_PER_VEHICLE} mode its worker thread ends as well.
+ */
+class MessageDispatcher {
+  static final int DEFAULT_CAPACITY = 256;
+  private static final int BATCH_SIZE = 16;
+
+  private final AnkiConnector anki;
+  private final DispatchMode mode;
+  private final Worker[] stripes;
+  private final Map<Vehicle, VehicleQueue> queues;
+  private final LongAdder dropped;
+
+  private volatile int capacity = DEFAULT_CAPACITY;
+
+  /**
+   * @param threads number of workers shared by all vehicles in {@link DispatchMode#STRIPED} mode
+   */
+  MessageDispatcher(AnkiConnector anki, DispatchMode mode, int threads) {
+    if (mode == DispatchMode.INLINE) {
+      throw new IllegalArgumentException("inline dispatch does not use a dispatcher");
+    }
+    if (threads < 1) {
+      throw new IllegalArgumentException("at least one dispatch thread is required: " + threads);
+    }
+    this.anki = anki;
+    this.mode = mode;
+    this.queues = new ConcurrentHashMap<>();
+    this.dropped = new LongAdder();
+
+    if (mode == DispatchMode.STRIPED) {
+      stripes = new Worker[threads];
+      for (int i = 0; i < threads; i++) {
+        stripes[i] = new Worker("anki-dispatch-" + i);
+      }
+    }
+    else {
+      stripes = null;
+    }
+  }
+
+  DispatchMode getMode() {
+    return mode;
+  }
+
+  /**
+   * Queues a received message for the vehicle's listeners without blocking.
+   */
+  void dispatch(Vehicle vehicle, Message message) {
+    VehicleQueue queue;
+    boolean schedule;
+
+    while (true) {
+      queue = queues.get(vehicle);
+      if (queue == null) {
+        queue = queues.computeIfAbsent(vehicle, this::createQueue);
+      }
+      synchronized (queue) {
+        if (queue.retired) {
+          // the queue was dropped meanwhile, the vehicle gets a new one
+          continue;
+        }
+        // the vehicle is connected again before its queue was dropped
+        queue.released = false;
+        if (queue.messages.size() >= capacity && !makeRoom(queue, message)) {
+          dropped.increment();
+          return;
+        }
+        queue.messages.add(message);
+        schedule = !queue.scheduled;
+        queue.scheduled = true;
+      }
+      break;
+    }
+
+    if (schedule) {
+      queue.worker.schedule(queue);
+    }
+  }
+
+  /**
+   * Drops the vehicle's queue once its queued messages are delivered, e.g. after the vehicle was
+   * disconnected. Messages dispatched to the vehicle later get a new queue.
+   */
+  void release(Vehicle vehicle) {
+    VehicleQueue queue = queues.get(vehicle);
+    if (queue != null) {
+      synchronized (queue) {
+        queue.released = true;
+      }
+      retire(queue);
+    }
+  }
+
+  /**
+   * Drops a released queue unless it still has messages to deliver, and stops its own worker.
+   */
+  private void retire(VehicleQueue queue) {
+    synchronized (queue) {
+      if (!queue.released || queue.scheduled || queue.retired) {
+        return;
+      }
+      queue.retired = true;
+    }
+    queues.remove(queue.vehicle, queue);
+    if (stripes == null) {
+      queue.worker.stop();
+    }
+  }
+
+  /**
+   * Drops the oldest queued position update of a full queue.
+   *
+   * @return false if the incoming message should be dropped instead
+   */
+  private boolean makeRoom(VehicleQueue queue, Message message) {
+    Iterator<Message> messages = queue.messages.iterator();
+    while (messages.hasNext()) {
+      if (messages.next().getType() == LocalizationPositionUpdateMessage.TYPE) {
+        messages.remove();
+        dropped.increment();
+        return true;
+      }
+    }
+    return message.getType() != LocalizationPositionUpdateMessage.TYPE;
+  }
+
+  private VehicleQueue createQueue(Vehicle vehicle) {
+    Worker worker;
+    if (stripes != null) {
+      worker = stripes[Math.floorMod(vehicle.hashCode(), stripes.length)];
+    }
+    else {
+      worker = new Worker("anki-dispatch-" + vehicle.getAddress());
+    }
+    return new VehicleQueue(vehicle, worker);
+  }
+
+  void setCapacity(int capacity) {
+    this.capacity = capacity;
+  }
+
+  /**
+   * @return the number of received messages waiting for their listeners
+   */
+  int getQueueDepth() {
+    int depth = 0;
+    for (VehicleQueue queue : queues.values()) {
+      synchronized (queue) {
+        depth += queue.messages.size();
+      }
+    }
+    return depth;
+  }
+
+  /**
+   * @return the number of position updates dropped because a vehicle's queue was full
+   */
+  long getDropped() {
+    return dropped.sum();
+  }
+
+  /**
+   * Stops all workers once the queued messages are passed to the listeners.
+   */
+  void close() {
+    if (stripes != null) {
+      for (Worker worker : stripes) {
+        worker.close();
+      }
+    }
+    else {
+      for (VehicleQueue queue : queues.values()) {
+        queue.worker.close();
+      }
+    }
+  }
+
+  private class Worker {
+    private final ArrayDeque<VehicleQueue> ready = new ArrayDeque<>();
+    private final Thread thread;
+    private boolean closing;
+
+    Worker(String name) {
+      thread = Resources.newThread(name, this::run);
+      thread.start();
+    }
+
+    synchronized void schedule(VehicleQueue queue) {
+      ready.add(queue);
+      notify();
+    }
+
+    /**
+     * Lets the worker end once its ready queues are drained, without waiting for it.
+     */
+    synchronized void stop() {
+      closing = true;
+      notify();
+    }
+
+    void close() {
+      stop();
+      if (Thread.currentThread() != thread) {
+        try {
+          thread.join(1000);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+
+    private void run() {
+      while (true) {
+        VehicleQueue queue;
+        synchronized (this) {
+          while (ready.isEmpty() && !closing) {
+            try {
+              wait();
+            } catch (InterruptedException e) {
+              return;
+            }
+          }
+          queue = ready.poll();
+          if (queue == null) {
+            return;
+          }
+        }
+
+        boolean drained = false;
+        for (int i = 0; i < BATCH_SIZE && !drained; i++) {
+          Message message = queue.poll();
+          if (message == null) {
+            drained = true;
+          }
+          else {
+            try {
+              anki.deliver(queue.vehicle, message);
+            } catch (RuntimeException e) {
+              e.printStackTrace();
+            }
+          }
+        }
+        if (!drained) {
+          // the queue is still scheduled, let the other vehicles of this worker go first
+          schedule(queue);
+        }
+        else {
+          retire(queue);
+        }
+      }
+    }
+  }
+
+  private static class VehicleQueue {
+    final Vehicle vehicle;
+    final Worker worker;
+    final ArrayDeque<Message> messages = new ArrayDeque<>();
+    boolean scheduled;
+    boolean released;
+    boolean retired;
+
+    VehicleQueue(Vehicle vehicle, Worker worker) {
+      this.vehicle = vehicle;
+      this.worker = worker;
+    }
+
+    synchronized Message poll() {
+      Message message = messages.poll();
+      if (message == null) {
+        scheduled = false;
+      }
+      return message;
+    }
+  }
+}
@@ -0,0 +1,349 @@
+package de.adesso.anki;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import de.adesso.anki.messages.Message;
+
+/**
+ * Publishes the messages of one class received from a vehicle or a fleet of vehicles as a
+ * Reactive Streams publisher.
+ *
+ * Every subscriber gets its own bounded buffer, which is filled by a listener on the vehicles
+ * and drained as the subscriber requests elements. The reader thread never waits for a
+ * subscriber: if a buffer is full, its oldest element is dropped. Elements are passed to the
+ * subscriber on an executor and never on the thread that received the message. Unless another
+ * executor is given, a shared pool of daemon threads is used, so a subscriber that blocks does
+ * not hold up the others.
+ *
+ * A publisher is immutable, the operators return a new publisher:
+ * <ul>
+ * <li>{@link #conflate()} keeps only the latest element per vehicle, for updates where only the
+ * current state matters, like position updates</li>
+ * <li>{@link #batch(int, long, TimeUnit)} collects elements into lists, so that consumers can
+ * process them in bulk</li>
+ * </ul>
+ *
+ * <pre>
+ * vehicle.publisher(LocalizationPositionUpdateMessage.class).conflate().subscribe(subscriber);
+ * </pre>
+ *
+ * A stream never completes on its own. Cancelling the subscription removes the listeners.
+ *
+ * @param <T> element type
+ */
+public class MessagePublisher<T> implements Publisher<T> {
+  private static final int DEFAULT_BUFFER_SIZE = 256;
+  private static final int DRAIN_LIMIT = 64;
+
+  private final List<Vehicle> vehicles;
+  private final Class<? extends Message> messageClass;
+  private final BiFunction<Vehicle, Message, T> mapper;
+  private final int bufferSize;
+  private final boolean conflating;
+  private final Executor executor;
+
+  private MessagePublisher(List<Vehicle> vehicles, Class<? extends Message> messageClass,
+      BiFunction<Vehicle, Message, T> mapper, int bufferSize, boolean conflating, Executor executor) {
+    this.vehicles = vehicles;
+    this.messageClass = messageClass;
+    this.mapper = mapper;
+    this.bufferSize = bufferSize;
+    this.conflating = conflating;
+    this.executor = executor;
+  }
+
+  /**
+   * Publishes the messages of the given class received from a vehicle.
+   */
+  @SuppressWarnings("unchecked")
+  public static <M extends Message> MessagePublisher<M> of(Vehicle vehicle, Class<M> messageClass) {
+    return new MessagePublisher<>(Collections.singletonList(vehicle), messageClass,
+        (v, message) -> (M) message, DEFAULT_BUFFER_SIZE, false, Threads.POOL);
+  }
+
+  /**
+   * Publishes the messages of the given class received from any of the given vehicles, together
+   * with the vehicle they were received from.
+   */
+  @SuppressWarnings("unchecked")
+  public static <M extends Message> MessagePublisher<VehicleMessage<M>> of(Collection<Vehicle> vehicles,
+      Class<M> messageClass) {
+    return new MessagePublisher<>(new ArrayList<>(vehicles), messageClass,
+        (vehicle, message) -> new VehicleMessage<>(vehicle, (M) message), DEFAULT_BUFFER_SIZE, false,
+        Threads.POOL);
+  }
+
+  /**
+   * Returns a publisher that keeps only the latest unrequested element of each vehicle.
+   * A newer element replaces the older one in its place in the buffer.
+   */
+  public MessagePublisher<T> conflate() {
+    return new MessagePublisher<>(vehicles, messageClass, mapper, bufferSize, true, executor);
+  }
+
+  /**
+   * Returns a publisher that buffers up to the given number of unrequested elements per
+   * subscriber before dropping the oldest one.
+   */
+  public MessagePublisher<T> buffer(int size) {
+    if (size < 1) {
+      throw new IllegalArgumentException("buffer size must be positive: " + size);
+    }
+    return new MessagePublisher<>(vehicles, messageClass, mapper, size, conflating, executor);
+  }
+
+  /**
+   * Returns a publisher that passes elements to subscribers on the given executor.
+   */
+  public MessagePublisher<T> executor(Executor executor) {
+    return new MessagePublisher<>(vehicles, messageClass, mapper, bufferSize, conflating, executor);
+  }
+
+  /**
+   * Returns a publisher of batches. A batch is published as soon as it holds the given number of
+   * elements, or once the oldest element in it has waited for the given time. Each requested
+   * element is one batch. The buffer holds at least one full batch.
+   */
+  public Publisher<List<T>> batch(int maxSize, long timeout, TimeUnit unit) {
+    if (maxSize < 1) {
+      throw new IllegalArgumentException("batch size must be positive: " + maxSize);
+    }
+    long timeoutNanos = unit.toNanos(timeout);
+    return subscriber -> subscribe(subscriber, maxSize, timeoutNanos);
+  }
+
+  @Override
+  public void subscribe(Subscriber<? super T> subscriber) {
+    subscribe(subscriber, 0, 0);
+  }
+
+  @SuppressWarnings("unchecked")
+  private void subscribe(Subscriber<?> subscriber, int batchSize, long batchTimeout) {
+    if (subscriber == null) {
+      throw new NullPointerException("subscriber");
+    }
+    MessageSubscription subscription = new MessageSubscription((Subscriber<Object>) subscriber, batchSize, batchTimeout);
+    subscriber.onSubscribe(subscription);
+    subscription.register();
+  }
+
+  private static class Threads {
+    static final ExecutorService POOL = Executors.newCachedThreadPool(Resources.threadFactory("anki-streams"));
+
+    static final ScheduledExecutorService SCHEDULER =
+        Executors.newSingleThreadScheduledExecutor(Resources.threadFactory("anki-batches"));
+  }
+
+  private class MessageSubscription implements Subscription {
+    private final Subscriber<Object> subscriber;
+    private final int batchSize;
+    private final long batchTimeout;
+    private final Map<Vehicle, MessageListener<Message>> listeners = new LinkedHashMap<>();
+    private final ArrayDeque<T> queue = new ArrayDeque<>();
+    private final Map<Vehicle, T> latest = new LinkedHashMap<>();
+
+    private final AtomicLong requested = new AtomicLong();
+    private final AtomicInteger work = new AtomicInteger();
+    private volatile boolean cancelled;
+    private volatile Throwable error;
+    private long windowStart;
+
+    MessageSubscription(Subscriber<Object> subscriber, int batchSize, long batchTimeout) {
+      this.subscriber = subscriber;
+      this.batchSize = batchSize;
+      this.batchTimeout = batchTimeout;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    void register() {
+      synchronized (listeners) {
+        if (cancelled) {
+          return;
+        }
+        for (Vehicle vehicle : vehicles) {
+          MessageListener<Message> listener = (message) -> offer(vehicle, message);
+          listeners.put(vehicle, listener);
+          vehicle.addMessageListener((Class) messageClass, listener);
+        }
+      }
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private void unregister() {
+      synchronized (listeners) {
+        for (Map.Entry<Vehicle, MessageListener<Message>> entry : listeners.entrySet()) {
+          entry.getKey().removeMessageListener((Class) messageClass, entry.getValue());
+        }
+        listeners.clear();
+      }
+    }
+
+    private void offer(Vehicle vehicle, Message message) {
+      T element = mapper.apply(vehicle, message);
+      boolean startWindow;
+      synchronized (queue) {
+        startWindow = size() == 0 && batchSize > 0;
+        if (startWindow) {
+          windowStart = System.nanoTime();
+        }
+        if (conflating) {
+          latest.put(vehicle, element);
+        }
+        else {
+          if (queue.size() >= Math.max(bufferSize, batchSize)) {
+            queue.poll();
+          }
+          queue.add(element);
+        }
+      }
+      if (startWindow) {
+        Threads.SCHEDULER.schedule(this::signal, batchTimeout, TimeUnit.NANOSECONDS);
+      }
+      signal();
+    }
+
+    private int size() {
+      return conflating ? latest.size() : queue.size();
+    }
+
+    private T poll() {
+      if (!conflating) {
+        return queue.poll();
+      }
+      Iterator<T> elements = latest.values().iterator();
+      if (!elements.hasNext()) {
+        return null;
+      }
+      T element = elements.next();
+      elements.remove();
+      return element;
+    }
+
+    /**
+     * Returns the next element or batch that can be published, or null if there is none yet.
+     */
+    private Object next() {
+      synchronized (queue) {
+        if (batchSize == 0) {
+          return poll();
+        }
+        int size = size();
+        if (size == 0 || (size < batchSize && System.nanoTime() - windowStart < batchTimeout)) {
+          return null;
+        }
+        List<T> batch = new ArrayList<>(Math.min(size, batchSize));
+        while (batch.size() < batchSize && size() > 0) {
+          batch.add(poll());
+        }
+        if (size() > 0) {
+          windowStart = System.nanoTime();
+          Threads.SCHEDULER.schedule(this::signal, batchTimeout, TimeUnit.NANOSECONDS);
+        }
+        return batch;
+      }
+    }
+
+    /**
+     * Schedules a drain on the executor unless one is already running.
+     */
+    private void signal() {
+      if (work.getAndIncrement() == 0) {
+        try {
+          executor.execute(this::drain);
+        } catch (RuntimeException e) {
+          cancel();
+          subscriber.onError(e);
+        }
+      }
+    }
+
+    private void drain() {
+      int missed = 1;
+      int emitted = 0;
+      do {
+        while (!cancelled && requested.get() > 0) {
+          if (emitted == DRAIN_LIMIT) {
+            // let other subscriptions on the executor go first, the work count keeps this one scheduled
+            executor.execute(this::drain);
+            return;
+          }
+          Object element = next();
+          if (element == null) {
+            break;
+          }
+          emitted++;
+          requested.decrementAndGet();
+          try {
+            subscriber.onNext(element);
+          } catch (RuntimeException e) {
+            // subscribers must not throw, stop publishing to this one
+            e.printStackTrace();
+            cancel();
+          }
+        }
+        if (cancelled) {
+          clear();
+          Throwable failure = error;
+          if (failure != null) {
+            error = null;
+            subscriber.onError(failure);
+          }
+        }
+        missed = work.addAndGet(-missed);
+      } while (missed != 0);
+    }
+
+    private void clear() {
+      synchronized (queue) {
+        queue.clear();
+        latest.clear();
+      }
+    }
+
+    @Override
+    public void request(long n) {
+      if (n <= 0) {
+        // the error is signalled by the drain, so that it never overlaps with onNext
+        if (!cancelled) {
+          error = new IllegalArgumentException("request must be positive: " + n);
+        }
+        cancel();
+        return;
+      }
+      long current;
+      while ((current = requested.get()) != Long.MAX_VALUE
+          && !requested.compareAndSet(current, current + n < 0 ? Long.MAX_VALUE : current + n)) {
+        // retry until the demand is added
+      }
+      signal();
+    }
+
+    @Override
+    public void cancel() {
+      if (!cancelled) {
+        cancelled = true;
+        unregister();
+        signal();
+      }
+    }
+  }
+}
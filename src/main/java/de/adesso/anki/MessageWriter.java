@@ -0,0 +1,378 @@
+package de.adesso.anki;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.time.LocalTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import de.adesso.anki.messages.ChangeLaneMessage;
+import de.adesso.anki.messages.Message;
+import de.adesso.anki.messages.SetOffsetFromRoadCenterMessage;
+import de.adesso.anki.messages.SetSpeedMessage;
+
+/**
+ * Writes outgoing vehicle messages on a dedicated thread.
+ *
+ * Every vehicle has a bounded queue of unsent messages. A new speed, lane change or offset
+ * message replaces an unsent message of the same type in the vehicle's queue, since the vehicle
+ * would only act on the newer one anyway. The older message is removed and the newer one is
+ * queued at the end, so messages are still sent in the order they were queued. All messages that
+ * are ready when the writer wakes up are encoded into one buffer and written to the socket at once.
+ *
+ * The gateway commands to connect and disconnect a vehicle are queued with its messages, so that
+ * a message sent before a disconnect reaches the vehicle before it is disconnected.
+ *
+ * Broadcasts to several vehicles have a queue of their own and are written before the vehicle
+ * queues, each in as few writes as possible. A broadcast can therefore overtake messages that were
+ * queued for one of its vehicles before it, except for speed, lane change and offset messages,
+ * which it replaces.
+ */
+class MessageWriter {
+  private static final int BUFFER_SIZE = 8192;
+  static final int MAX_ENCODED_SIZE = 256;
+  private static final int DEFAULT_CAPACITY = 32;
+
+  private final AnkiConnector anki;
+  private final ByteBuffer buffer;
+  private final Map<Vehicle, VehicleQueue> queues;
+  private final ArrayDeque<VehicleQueue> ready;
+  private final ArrayDeque<Broadcast> broadcasts;
+  private final Thread writerThread;
+
+  private volatile int capacity = DEFAULT_CAPACITY;
+  private volatile boolean logging;
+  private boolean closing;
+
+  MessageWriter(AnkiConnector anki) {
+    this.anki = anki;
+    this.buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    this.queues = new ConcurrentHashMap<>();
+    this.ready = new ArrayDeque<>();
+    this.broadcasts = new ArrayDeque<>();
+
+    writerThread = Resources.newThread("anki-writer", this::run);
+    writerThread.start();
+  }
+
+  /**
+   * Queues a message for the given vehicle without blocking.
+   *
+   * @throws IllegalStateException if the vehicle's queue is full
+   */
+  void enqueue(Vehicle vehicle, Message message) {
+    VehicleQueue queue = queues.computeIfAbsent(vehicle, VehicleQueue::new);
+    boolean schedule;
+
+    synchronized (queue) {
+      boolean coalesced = queue.coalesce(message);
+      if (!coalesced) {
+        if (queue.messages.size() >= capacity) {
+          throw new IllegalStateException("outbound queue is full: " + vehicle.getAddress());
+        }
+        queue.messages.add(message);
+      }
+      Metrics metrics = anki.getMetrics();
+      if (metrics.isEnabled()) {
+        metrics.queued(queue.messages.size(), coalesced);
+      }
+      schedule = !queue.scheduled;
+      queue.scheduled = true;
+    }
+
+    if (schedule) {
+      schedule(queue);
+    }
+  }
+
+  /**
+   * Queues a command to the gateway behind the messages already queued for the given vehicle.
+   * Commands are never rejected, since a disconnect must not be lost because of a full queue.
+   */
+  void enqueueCommand(Vehicle vehicle, String command) {
+    VehicleQueue queue = queues.computeIfAbsent(vehicle, VehicleQueue::new);
+    boolean schedule;
+
+    synchronized (queue) {
+      queue.messages.add(new Command(command));
+      schedule = !queue.scheduled;
+      queue.scheduled = true;
+    }
+
+    if (schedule) {
+      schedule(queue);
+    }
+  }
+
+  private synchronized void schedule(VehicleQueue queue) {
+    ready.add(queue);
+    notify();
+  }
+
+  /**
+   * Queues a message for several vehicles without blocking, and removes unsent messages it
+   * supersedes from their queues. Nothing is removed if the broadcast is rejected.
+   *
+   * @param raw the encoded message
+   * @throws IllegalStateException if too many broadcasts are queued
+   */
+  void enqueueBroadcast(List<Vehicle> vehicles, Message message, ByteBuffer raw,
+      CompletableFuture<Map<Vehicle, Long>> future) {
+    synchronized (this) {
+      if (broadcasts.size() >= capacity) {
+        throw new IllegalStateException("outbound broadcast queue is full");
+      }
+      for (Vehicle vehicle : vehicles) {
+        VehicleQueue queue = queues.get(vehicle);
+        if (queue != null) {
+          synchronized (queue) {
+            queue.supersede(message);
+          }
+        }
+      }
+      broadcasts.add(new Broadcast(new ArrayList<>(vehicles), message, raw, future));
+      notify();
+    }
+  }
+
+  /**
+   * @return the number of messages waiting to be written to all vehicles
+   */
+  int getQueueDepth() {
+    int depth = 0;
+    for (VehicleQueue queue : queues.values()) {
+      synchronized (queue) {
+        depth += queue.messages.size();
+      }
+    }
+    return depth;
+  }
+
+  void setCapacity(int capacity) {
+    this.capacity = capacity;
+  }
+
+  void setLogging(boolean logging) {
+    this.logging = logging;
+  }
+
+  /**
+   * Stops the writer thread once all queued messages are written.
+   */
+  void close() {
+    synchronized (this) {
+      closing = true;
+      notify();
+    }
+    try {
+      writerThread.join(1000);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void run() {
+    List<String> log = new ArrayList<>();
+    while (true) {
+      synchronized (this) {
+        while (ready.isEmpty() && broadcasts.isEmpty() && !closing) {
+          try {
+            wait();
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+        if (ready.isEmpty() && broadcasts.isEmpty()) {
+          return;
+        }
+      }
+
+      Broadcast broadcast;
+      while ((broadcast = nextBroadcast()) != null) {
+        write(broadcast);
+        if (logging) {
+          log.add(String.format("[%s] > %d vehicles: %s", LocalTime.now(), broadcast.vehicles.size(), broadcast.message));
+        }
+      }
+
+      try {
+        buffer.clear();
+        VehicleQueue queue;
+        while ((queue = nextReady()) != null) {
+          drain(queue, log);
+        }
+        anki.write(buffer);
+      } catch (RuntimeException e) {
+        e.printStackTrace();
+      }
+
+      for (String line : log) {
+        System.out.println(line);
+      }
+      log.clear();
+    }
+  }
+
+  /**
+   * Encodes all messages of a vehicle's queue, writing the buffer whenever it is full. If a write
+   * fails, the messages left in the queue are dropped, so that later messages are scheduled again.
+   */
+  private void drain(VehicleQueue queue, List<String> log) {
+    boolean drained = false;
+    try {
+      Message message;
+      while ((message = queue.poll()) != null) {
+        if (buffer.remaining() < MAX_ENCODED_SIZE) {
+          anki.write(buffer);
+          buffer.clear();
+        }
+        boolean encoded;
+        if (message instanceof Command) {
+          anki.encodeCommand(((Command) message).command, buffer);
+          encoded = true;
+        }
+        else {
+          encoded = anki.encode(queue.vehicle, message, buffer);
+        }
+        if (encoded && logging) {
+          log.add(String.format("[%s] > %s: %s", LocalTime.now(), queue.vehicle, message));
+        }
+      }
+      drained = true;
+    } finally {
+      if (!drained) {
+        queue.clear();
+      }
+    }
+  }
+
+  private synchronized VehicleQueue nextReady() {
+    return ready.poll();
+  }
+
+  private synchronized Broadcast nextBroadcast() {
+    return broadcasts.poll();
+  }
+
+  /**
+   * Writes a broadcast and completes its future with the time each vehicle's message was written.
+   */
+  private void write(Broadcast broadcast) {
+    Map<Vehicle, Long> times = new LinkedHashMap<>();
+    List<Vehicle> encoded = new ArrayList<>();
+    try {
+      int next = 0;
+      while (next < broadcast.vehicles.size()) {
+        buffer.clear();
+        encoded.clear();
+        next = anki.encodeBroadcast(broadcast.vehicles, next, broadcast.message, broadcast.raw, buffer, encoded);
+        anki.write(buffer);
+        long now = System.nanoTime();
+        for (Vehicle vehicle : encoded) {
+          times.put(vehicle, now);
+        }
+      }
+      broadcast.future.complete(times);
+    } catch (RuntimeException e) {
+      broadcast.future.completeExceptionally(e);
+    }
+  }
+
+  private static class Broadcast {
+    final List<Vehicle> vehicles;
+    final Message message;
+    final ByteBuffer raw;
+    final CompletableFuture<Map<Vehicle, Long>> future;
+
+    Broadcast(List<Vehicle> vehicles, Message message, ByteBuffer raw, CompletableFuture<Map<Vehicle, Long>> future) {
+      this.vehicles = vehicles;
+      this.message = message;
+      this.raw = raw;
+      this.future = future;
+    }
+  }
+
+  /**
+   * A command to the gateway that is written in order with the messages of a vehicle.
+   */
+  private static class Command extends Message {
+    final String command;
+
+    Command(String command) {
+      super(-1);
+      this.command = command;
+    }
+
+    @Override
+    public String toString() {
+      return command;
+    }
+  }
+
+  private static class VehicleQueue {
+    final Vehicle vehicle;
+    final List<Message> messages = new ArrayList<>();
+    boolean scheduled;
+
+    VehicleQueue(Vehicle vehicle) {
+      this.vehicle = vehicle;
+    }
+
+    /**
+     * Removes an unsent message superseded by the given one and queues the given one at the end,
+     * behind the messages that were queued after the removed one. Messages queued before a
+     * gateway command are not replaced, since they belong to the connection before it.
+     */
+    boolean coalesce(Message message) {
+      if (!isCoalescable(message)) {
+        return false;
+      }
+      for (int i = messages.size() - 1; i >= 0 && !(messages.get(i) instanceof Command); i--) {
+        if (messages.get(i).getType() == message.getType()) {
+          messages.remove(i);
+          messages.add(message);
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * Removes unsent messages that the given message replaces.
+     */
+    void supersede(Message message) {
+      if (isCoalescable(message)) {
+        messages.removeIf((queued) -> queued.getType() == message.getType());
+      }
+    }
+
+    synchronized Message poll() {
+      if (messages.isEmpty()) {
+        scheduled = false;
+        return null;
+      }
+      return messages.remove(0);
+    }
+
+    synchronized void clear() {
+      messages.clear();
+      scheduled = false;
+    }
+
+    private static boolean isCoalescable(Message message) {
+      switch (message.getType()) {
+        case SetSpeedMessage.TYPE:
+        case ChangeLaneMessage.TYPE:
+        case SetOffsetFromRoadCenterMessage.TYPE:
+          return true;
+        default:
+          return false;
+      }
+    }
+  }
+}
@@ -0,0 +1,285 @@
+package de.adesso.anki;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import de.adesso.anki.messages.Message;
+
+/**
+ * Collects message counters and latency histograms of a connector and its vehicles.
+ *
+ * Every connector has metrics, which are disabled until {@link #setEnabled(boolean)} is called.
+ * While disabled, the connector and its vehicles only check a volatile flag per message. While
+ * enabled, counting a message takes a few atomic increments and timing it two calls to
+ * {@link System#nanoTime()}; nothing is allocated per message.
+ *
+ * The values can be pulled from this class and from the {@link VehicleMetrics} of each vehicle,
+ * or watched with a JMX console after {@link #registerMBean()}.
+ *
+ * <pre>
+ * anki.getMetrics().setEnabled(true);
+ * ...
+ * System.out.println(anki.getMetrics().getPingRoundTrip());
+ * </pre>
+ */
+public class Metrics implements MetricsMXBean {
+  private static final AtomicInteger instances = new AtomicInteger();
+
+  private final AnkiConnector anki;
+  private final Map<Vehicle, VehicleMetrics> vehicles = new ConcurrentHashMap<>();
+  private final AtomicReferenceArray<String> typeNames = new AtomicReferenceArray<>(256);
+
+  private final LatencyHistogram parseTime = new LatencyHistogram();
+  private final LatencyHistogram dispatchTime = new LatencyHistogram();
+  private final LatencyHistogram listenerTime = new LatencyHistogram();
+  private final LatencyHistogram pingRoundTrip = new LatencyHistogram();
+  private final LatencyHistogram speedToPosition = new LatencyHistogram();
+  private final LongAdder coalesced = new LongAdder();
+  private final AtomicInteger maxQueueDepth = new AtomicInteger();
+
+  private volatile boolean enabled;
+  private ObjectName objectName;
+
+  Metrics(AnkiConnector anki) {
+    this.anki = anki;
+  }
+
+  @Override
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  @Override
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  /**
+   * Returns the metrics of the given vehicle. They are empty until the vehicle exchanges messages
+   * while the metrics are enabled.
+   */
+  public VehicleMetrics getVehicleMetrics(Vehicle vehicle) {
+    VehicleMetrics metrics = vehicles.get(vehicle);
+    return metrics != null ? metrics : vehicles.computeIfAbsent(vehicle, VehicleMetrics::new);
+  }
+
+  /**
+   * Returns the metrics of all vehicles that exchanged messages while the metrics were enabled.
+   */
+  public Collection<VehicleMetrics> getVehicleMetrics() {
+    return Collections.unmodifiableCollection(new ArrayList<>(vehicles.values()));
+  }
+
+  @Override
+  public long getMessagesReceived() {
+    long sum = 0;
+    for (VehicleMetrics metrics : vehicles.values()) {
+      sum += metrics.getMessagesReceived();
+    }
+    return sum;
+  }
+
+  @Override
+  public long getMessagesSent() {
+    long sum = 0;
+    for (VehicleMetrics metrics : vehicles.values()) {
+      sum += metrics.getMessagesSent();
+    }
+    return sum;
+  }
+
+  @Override
+  public long getMessagesCoalesced() {
+    return coalesced.sum();
+  }
+
+  @Override
+  public int getQueueDepth() {
+    return anki.getQueueDepth();
+  }
+
+  @Override
+  public int getInboundQueueDepth() {
+    return anki.getInboundQueueDepth();
+  }
+
+  @Override
+  public long getMessagesDropped() {
+    return anki.getDroppedMessages();
+  }
+
+  @Override
+  public int getMaxQueueDepth() {
+    return maxQueueDepth.get();
+  }
+
+  @Override
+  public Map<String, Long> getMessagesReceivedByType() {
+    return countByType(true);
+  }
+
+  @Override
+  public Map<String, Long> getMessagesSentByType() {
+    return countByType(false);
+  }
+
+  private Map<String, Long> countByType(boolean received) {
+    Map<String, Long> counts = new TreeMap<>();
+    for (int type = 0; type < 256; type++) {
+      long count = 0;
+      for (VehicleMetrics metrics : vehicles.values()) {
+        count += received ? metrics.getMessagesReceived(type) : metrics.getMessagesSent(type);
+      }
+      if (count > 0) {
+        String name = typeNames.get(type);
+        counts.put(name != null ? name : String.format("0x%02x", type), count);
+      }
+    }
+    return counts;
+  }
+
+  @Override
+  public Map<String, Long> getMessagesReceivedByVehicle() {
+    Map<String, Long> counts = new TreeMap<>();
+    for (VehicleMetrics metrics : vehicles.values()) {
+      counts.put(metrics.getVehicle().getAddress(), metrics.getMessagesReceived());
+    }
+    return counts;
+  }
+
+  @Override
+  public Map<String, Long> getMessagesSentByVehicle() {
+    Map<String, Long> counts = new TreeMap<>();
+    for (VehicleMetrics metrics : vehicles.values()) {
+      counts.put(metrics.getVehicle().getAddress(), metrics.getMessagesSent());
+    }
+    return counts;
+  }
+
+  @Override
+  public LatencyHistogram.Summary getParseTime() {
+    return parseTime.getSummary();
+  }
+
+  @Override
+  public LatencyHistogram.Summary getDispatchTime() {
+    return dispatchTime.getSummary();
+  }
+
+  @Override
+  public LatencyHistogram.Summary getListenerTime() {
+    return listenerTime.getSummary();
+  }
+
+  @Override
+  public LatencyHistogram.Summary getPingRoundTrip() {
+    return pingRoundTrip.getSummary();
+  }
+
+  @Override
+  public LatencyHistogram.Summary getSpeedToPosition() {
+    return speedToPosition.getSummary();
+  }
+
+  @Override
+  public void reset() {
+    for (VehicleMetrics metrics : vehicles.values()) {
+      metrics.reset();
+    }
+    parseTime.reset();
+    dispatchTime.reset();
+    listenerTime.reset();
+    pingRoundTrip.reset();
+    speedToPosition.reset();
+    coalesced.reset();
+    maxQueueDepth.set(0);
+  }
+
+  /**
+   * Registers these metrics with the platform MBean server, under the domain "de.adesso.anki".
+   * They are unregistered when the connector is closed.
+   *
+   * @return the name the metrics were registered under
+   */
+  public synchronized ObjectName registerMBean() throws JMException {
+    if (objectName == null) {
+      ObjectName name = new ObjectName("de.adesso.anki:type=Metrics,gateway="
+          + ObjectName.quote(anki.getHost() + ":" + anki.getPort()) + ",id=" + instances.incrementAndGet());
+      ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+      objectName = name;
+    }
+    return objectName;
+  }
+
+  public synchronized void unregisterMBean() {
+    if (objectName != null) {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      try {
+        server.unregisterMBean(objectName);
+      } catch (JMException e) {
+        e.printStackTrace();
+      }
+      objectName = null;
+    }
+  }
+
+  void received(Vehicle vehicle, Message message, long parseNanos, long now) {
+    int type = message.getType() & 0xff;
+    nameType(type, message);
+    getVehicleMetrics(vehicle).received(type, now, speedToPosition);
+    parseTime.record(parseNanos);
+  }
+
+  void dispatched(long nanos) {
+    dispatchTime.record(nanos);
+  }
+
+  void sent(Vehicle vehicle, Message message, long now) {
+    int type = message.getType() & 0xff;
+    nameType(type, message);
+    getVehicleMetrics(vehicle).sent(type, now);
+  }
+
+  void listenerInvoked(long nanos) {
+    listenerTime.record(nanos);
+  }
+
+  void pinged(Vehicle vehicle, long nanos) {
+    getVehicleMetrics(vehicle).getPingRoundTrip().record(nanos);
+    pingRoundTrip.record(nanos);
+  }
+
+  void queued(int depth, boolean coalesced) {
+    if (coalesced) {
+      this.coalesced.increment();
+    }
+    int max;
+    while (depth > (max = maxQueueDepth.get()) && !maxQueueDepth.compareAndSet(max, depth)) {
+      // retry until the maximum is at least this depth
+    }
+  }
+
+  private void nameType(int type, Message message) {
+    if (typeNames.get(type) == null && message.getClass() != Message.class) {
+      typeNames.set(type, message.getClass().getSimpleName());
+    }
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%d received, %d sent, parse %s, dispatch %s, ping %s", getMessagesReceived(),
+        getMessagesSent(), parseTime, dispatchTime, pingRoundTrip);
+  }
+}
@@ -0,0 +1,75 @@
+package de.adesso.anki;
+
+import java.util.Map;
+
+/**
+ * Management interface of the {@link Metrics} of a connector, see {@link Metrics#registerMBean()}.
+ * All durations are in nanoseconds.
+ */
+public interface MetricsMXBean {
+  boolean isEnabled();
+
+  void setEnabled(boolean enabled);
+
+  long getMessagesReceived();
+
+  long getMessagesSent();
+
+  /**
+   * @return the number of unsent messages that were replaced by a newer message of the same type
+   */
+  long getMessagesCoalesced();
+
+  /**
+   * @return the number of messages currently waiting to be written
+   */
+  int getQueueDepth();
+
+  /**
+   * @return the number of received messages waiting for their listeners on dispatch threads
+   */
+  int getInboundQueueDepth();
+
+  /**
+   * @return the number of position updates dropped because listeners on a dispatch thread did
+   *         not keep up
+   */
+  long getMessagesDropped();
+
+  /**
+   * @return the largest number of messages that were waiting to be written to a single vehicle
+   */
+  int getMaxQueueDepth();
+
+  Map<String, Long> getMessagesReceivedByType();
+
+  Map<String, Long> getMessagesSentByType();
+
+  Map<String, Long> getMessagesReceivedByVehicle();
+
+  Map<String, Long> getMessagesSentByVehicle();
+
+  /**
+   * @return the time to decode a received message
+   */
+  LatencyHistogram.Summary getParseTime();
+
+  /**
+   * @return the time to pass a received message to all of its listeners
+   */
+  LatencyHistogram.Summary getDispatchTime();
+
+  /**
+   * @return the time of a single vehicle message listener invocation
+   */
+  LatencyHistogram.Summary getListenerTime();
+
+  LatencyHistogram.Summary getPingRoundTrip();
+
+  LatencyHistogram.Summary getSpeedToPosition();
+
+  /**
+   * Clears all counters and histograms.
+   */
+  void reset();
+}
@@ -1,101 +1,452 @@
-package de.adesso.anki;
-
-import java.io.BufferedReader;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.util.ArrayList;
-import java.util.concurrent.CountDownLatch;
-
-/**
- * Reads text from an InputStream using BufferedReader and notifies listeners every time a line is
- * read from the BufferedReader.
- *
- * @author Yannick Eckey <yannick.eckey@adesso.de>
- */
-public class NotificationReader {
-  private BufferedReader reader;
-  private Thread listenerThread;
-  private boolean closing;
-
-  private ArrayList<NotificationListener> listeners;
-
-  public NotificationReader(InputStream input) {
-    reader = new BufferedReader(new InputStreamReader(input));
-    listeners = new ArrayList<>();
-
-    listenerThread = new Thread(() -> {
-      while (!closing) {
-        try {
-          String line = reader.readLine();
-          synchronized (listeners) {
-            while (listeners.isEmpty()) {
-              listeners.wait();
-            }
-          }
-          notifyListeners(line);
-        } catch (Exception e) {
-          if (!closing)
-            e.printStackTrace();
-        }
-      }
-    });
-
-    listenerThread.start();
-  }
-
-  public void addListener(NotificationListener listener) {
-    synchronized (listeners) {
-      listeners.add(listener);
-      listeners.notify();
-    }
-  }
-
-  public void removeListener(NotificationListener listener) {
-    listeners.remove(listener);
-  }
-
-  private void notifyListeners(String line) {
-
-    for (NotificationListener l : new ArrayList<>(listeners)) {
-      l.onReceive(line);
-    }
-  }
-
-  public String waitFor(String start) {
-    CountDownLatch doneSignal = new CountDownLatch(1);
-    StringContainer container = new StringContainer();
-
-    NotificationListener listener = (receivedLine) -> {
-      if (receivedLine.startsWith(start)) {
-        doneSignal.countDown();
-        container.line = receivedLine;
-      }
-    };
-    this.addListener(listener);
-
-    try {
-      doneSignal.await();
-    } catch (InterruptedException e) {
-      // TODO Auto-generated catch block
-      e.printStackTrace();
-    }
-    this.removeListener(listener);
-
-    return container.line;
-  }
-
-  private class StringContainer {
-    public String line;
-  }
-
-  public void close() {
-    this.closing = true;
-
-    // try {
-    // reader.close();
-    // }
-    // catch (IOException ex) {
-    // ex.printStackTrace();
-    // }
-  }
-}
+package de.adesso.anki;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads notifications from a channel and notifies listeners every time a line or a frame is read.
+ *
+ * The reader starts in text mode, where every notification is a line of text. After
+ * {@link #switchToFrames()} it reads length-prefixed binary frames instead: a 16 bit little
+ * endian length, followed by a channel byte and the frame data. Frames on the control channel
+ * are passed to the line listeners, all other frames are passed to the frame listeners.
+ *
+ * In text mode, lines starting with a routed vehicle address ({@link #route(String, int)}) are
+ * decoded from hex and passed to the frame listeners on the vehicle's channel as well, so each
+ * notification is looked up once by its address prefix.
+ *
+ * The reader runs on a daemon thread until the channel ends or {@link #close()} is called.
+ * Closing the reader closes the channel, which unblocks a pending read.
+ *
+ * @author Yannick Eckey <yannick.eckey@adesso.de>
+ */
+public class NotificationReader {
+  public static final int CONTROL_CHANNEL = 0xff;
+
+  /**
+   * Channel of outgoing frames that the gateway writes to several vehicles, see
+   * {@link AnkiConnector#isBroadcasting()}. It is never assigned to a vehicle.
+   */
+  public static final int BROADCAST_CHANNEL = 0xfe;
+
+  private static final int BUFFER_SIZE = 4096;
+  private static final long CLOSE_TIMEOUT = 1000;
+
+  private final ReadableByteChannel channel;
+  private final ByteBuffer buffer;
+  private final ByteBuffer decoded;
+  private Thread listenerThread;
+  private volatile boolean closing;
+  private volatile boolean framed;
+
+  private final Object listenersAdded = new Object();
+  private ListenerList<NotificationListener> listeners;
+  private ListenerList<FrameListener> frameListeners;
+  private ListenerList<Runnable> closeListeners;
+  private Map<String, Integer> routes;
+  private volatile RouteTable routeTable;
+
+  public NotificationReader(InputStream input) {
+    this(Channels.newChannel(input));
+  }
+
+  public NotificationReader(ReadableByteChannel channel) {
+    this.channel = channel;
+    buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    buffer.flip();
+    decoded = ByteBuffer.allocate(BUFFER_SIZE / 2).order(ByteOrder.LITTLE_ENDIAN);
+    listeners = new ListenerList<>(new NotificationListener[0]);
+    frameListeners = new ListenerList<>(new FrameListener[0]);
+    closeListeners = new ListenerList<>(new Runnable[0]);
+    routes = new HashMap<>();
+    routeTable = new RouteTable(routes);
+
+    listenerThread = Resources.newThread("anki-reader", () -> {
+      boolean open = true;
+      while (open && !closing) {
+        try {
+          open = framed ? readFrame() : readLine();
+        } catch (IOException e) {
+          // the channel is broken, reading again would fail the same way
+          if (!closing)
+            e.printStackTrace();
+          open = false;
+        } catch (InterruptedException e) {
+          open = false;
+        } catch (RuntimeException e) {
+          // a malformed notification or a failing listener, continue with the next notification
+          if (!closing)
+            e.printStackTrace();
+        }
+      }
+      if (!closing) {
+        for (Runnable listener : closeListeners.get()) {
+          listener.run();
+        }
+      }
+    });
+
+    listenerThread.start();
+  }
+
+  /**
+   * Switches the reader from lines to binary frames.
+   * Must be called by a NotificationListener while it receives the last line of text,
+   * so that no data following that line is read in the wrong mode.
+   */
+  public void switchToFrames() {
+    this.framed = true;
+  }
+
+  public boolean isFramed() {
+    return framed;
+  }
+
+  /**
+   * Routes text notifications starting with the given vehicle address to the frame listeners.
+   *
+   * @param address vehicle address
+   * @param channel channel passed to the frame listeners
+   */
+  public void route(String address, int channel) {
+    synchronized (routes) {
+      routes.put(address, channel);
+      routeTable = new RouteTable(routes);
+    }
+  }
+
+  public void unroute(String address) {
+    synchronized (routes) {
+      if (routes.remove(address) != null) {
+        routeTable = new RouteTable(routes);
+      }
+    }
+  }
+
+  private boolean readLine() throws IOException, InterruptedException {
+    int end;
+    while ((end = indexOfNewline()) < 0) {
+      if (!fill()) {
+        return false;
+      }
+    }
+
+    int start = buffer.position();
+    int lineEnd = end;
+    if (lineEnd > start && buffer.get(lineEnd - 1) == '\r') {
+      lineEnd--;
+    }
+
+    int channel = -1;
+    int separator = indexOf(';', start, lineEnd);
+    if (separator > start) {
+      channel = routeTable.lookup(buffer, start, separator);
+    }
+
+    if (channel >= 0) {
+      buffer.position(end + 1);
+      decodeHex(separator + 1, lineEnd);
+      notifyFrameListeners(channel, decoded);
+    }
+    else {
+      String line = toAscii(start, lineEnd);
+      buffer.position(end + 1);
+
+      awaitListeners();
+      notifyListeners(line);
+    }
+    return true;
+  }
+
+  private int indexOfNewline() {
+    return indexOf('\n', buffer.position(), buffer.limit());
+  }
+
+  private int indexOf(char c, int from, int to) {
+    for (int i = from; i < to; i++) {
+      if (buffer.get(i) == c) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private String toAscii(int from, int to) {
+    return new String(buffer.array(), buffer.arrayOffset() + from, to - from, StandardCharsets.US_ASCII);
+  }
+
+  private void decodeHex(int from, int to) {
+    if ((to - from) % 2 != 0) {
+      throw new IllegalArgumentException("hex notification needs to be even-length");
+    }
+
+    decoded.clear();
+    for (int i = from; i < to; i += 2) {
+      int high = Character.digit(buffer.get(i), 16);
+      int low = Character.digit(buffer.get(i + 1), 16);
+      if (high < 0 || low < 0) {
+        throw new IllegalArgumentException("illegal character in hex notification");
+      }
+      decoded.put((byte) (high << 4 | low));
+    }
+    decoded.flip();
+  }
+
+  private boolean readFrame() throws IOException, InterruptedException {
+    while (buffer.remaining() < 2) {
+      if (!fill()) {
+        return false;
+      }
+    }
+
+    int length = Short.toUnsignedInt(buffer.getShort(buffer.position()));
+    while (buffer.remaining() < 2 + length) {
+      if (!fill()) {
+        return false;
+      }
+    }
+
+    buffer.position(buffer.position() + 2);
+    int end = buffer.position() + length;
+    if (length == 0) {
+      return true;
+    }
+
+    int channel = Byte.toUnsignedInt(buffer.get());
+    if (channel == CONTROL_CHANNEL) {
+      String line = toAscii(buffer.position(), end);
+      buffer.position(end);
+
+      awaitListeners();
+      notifyListeners(line);
+    }
+    else {
+      int limit = buffer.limit();
+      buffer.limit(end);
+      try {
+        notifyFrameListeners(channel, buffer);
+      } finally {
+        buffer.limit(limit);
+        buffer.position(end);
+      }
+    }
+    return true;
+  }
+
+  private boolean fill() throws IOException {
+    buffer.compact();
+    try {
+      if (!buffer.hasRemaining()) {
+        throw new IOException("notification exceeds buffer size of " + BUFFER_SIZE + " bytes");
+      }
+      return channel.read(buffer) >= 0;
+    } finally {
+      buffer.flip();
+    }
+  }
+
+  private void awaitListeners() throws InterruptedException {
+    if (!listeners.isEmpty()) {
+      return;
+    }
+    synchronized (listenersAdded) {
+      while (listeners.isEmpty()) {
+        listenersAdded.wait();
+      }
+    }
+  }
+
+  public void addListener(NotificationListener listener) {
+    synchronized (listenersAdded) {
+      listeners.add(listener);
+      listenersAdded.notify();
+    }
+  }
+
+  public void removeListener(NotificationListener listener) {
+    listeners.remove(listener);
+  }
+
+  /**
+   * Adds a listener that is invoked on the reader thread once the channel has ended or failed,
+   * unless the reader was closed.
+   */
+  public void addCloseListener(Runnable listener) {
+    closeListeners.add(listener);
+  }
+
+  public void removeCloseListener(Runnable listener) {
+    closeListeners.remove(listener);
+  }
+
+  public void addFrameListener(FrameListener listener) {
+    frameListeners.add(listener);
+  }
+
+  public void removeFrameListener(FrameListener listener) {
+    frameListeners.remove(listener);
+  }
+
+  private void notifyListeners(String line) {
+    NotificationListener[] current = listeners.get();
+    for (int i = 0; i < current.length; i++) {
+      current[i].onReceive(line);
+    }
+  }
+
+  private void notifyFrameListeners(int channel, ByteBuffer frame) {
+    int position = frame.position();
+    FrameListener[] current = frameListeners.get();
+    for (int i = 0; i < current.length; i++) {
+      frame.position(position);
+      current[i].onFrame(channel, frame);
+    }
+  }
+
+  /**
+   * Waits until a line starting with the given prefix is received.
+   *
+   * @deprecated waits forever if the line never arrives, use
+   *             {@link #waitFor(String, long, TimeUnit)} instead
+   */
+  @Deprecated
+  public String waitFor(String start) {
+    return waitFor(start, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Waits until a line starting with the given prefix is received.
+   *
+   * @return the line, or null if it was not received within the given time or the waiting
+   *         thread was interrupted
+   */
+  public String waitFor(String start, long timeout, TimeUnit unit) {
+    CountDownLatch doneSignal = new CountDownLatch(1);
+    StringContainer container = new StringContainer();
+
+    NotificationListener listener = (receivedLine) -> {
+      if (receivedLine.startsWith(start)) {
+        container.line = receivedLine;
+        doneSignal.countDown();
+      }
+    };
+    this.addListener(listener);
+
+    try {
+      doneSignal.await(timeout, unit);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    this.removeListener(listener);
+
+    return container.line;
+  }
+
+  /**
+   * Immutable open addressing table from ASCII vehicle addresses to channels, which is looked up
+   * directly in the read buffer so that routing a notification does not allocate.
+   */
+  private static class RouteTable {
+    private final byte[][] addresses;
+    private final int[] channels;
+    private final int mask;
+
+    RouteTable(Map<String, Integer> routes) {
+      int size = Integer.highestOneBit(Math.max(routes.size(), 1) * 4);
+      addresses = new byte[size][];
+      channels = new int[size];
+      mask = size - 1;
+
+      for (Map.Entry<String, Integer> route : routes.entrySet()) {
+        byte[] address = route.getKey().getBytes(StandardCharsets.US_ASCII);
+        int i = hash(address, 0, address.length) & mask;
+        while (addresses[i] != null) {
+          i = (i + 1) & mask;
+        }
+        addresses[i] = address;
+        channels[i] = route.getValue();
+      }
+    }
+
+    /**
+     * @return the channel routed for the address in buffer[from, to), or -1
+     */
+    int lookup(ByteBuffer buffer, int from, int to) {
+      byte[] array = buffer.array();
+      int offset = buffer.arrayOffset();
+      int i = hash(array, offset + from, offset + to) & mask;
+
+      byte[] address;
+      while ((address = addresses[i]) != null) {
+        if (matches(address, array, offset + from, offset + to)) {
+          return channels[i];
+        }
+        i = (i + 1) & mask;
+      }
+      return -1;
+    }
+
+    private static int hash(byte[] data, int from, int to) {
+      int h = 0;
+      for (int i = from; i < to; i++) {
+        h = 31 * h + data[i];
+      }
+      return h ^ (h >>> 16);
+    }
+
+    private static boolean matches(byte[] address, byte[] data, int from, int to) {
+      if (address.length != to - from) {
+        return false;
+      }
+      for (int i = 0; i < address.length; i++) {
+        if (address[i] != data[from + i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  private class StringContainer {
+    public String line;
+  }
+
+  /**
+   * Stops reading and closes the channel. Waits for the reader thread to end, unless it is
+   * called by a listener on that thread. Listeners are not notified of any further data.
+   */
+  public void close() {
+    this.closing = true;
+
+    try {
+      channel.close();
+    } catch (IOException e) {
+      // the channel is not used anymore
+    }
+    if (Thread.currentThread() != listenerThread) {
+      // wakes the reader if it waits for listeners or the channel ignores the close
+      listenerThread.interrupt();
+      try {
+        listenerThread.join(CLOSE_TIMEOUT);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * @return whether the reader thread is still running
+   */
+  public boolean isAlive() {
+    return listenerThread.isAlive();
+  }
+}
@@ -0,0 +1,288 @@
+package de.adesso.anki;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.StampedLock;
+
+import de.adesso.anki.messages.LocalizationPositionUpdateMessage;
+import de.adesso.anki.messages.LocalizationTransitionUpdateMessage;
+import de.adesso.anki.messages.VehicleDelocalizedMessage;
+import de.adesso.anki.roadmap.MutablePosition;
+import de.adesso.anki.roadmap.Position;
+import de.adesso.anki.roadmap.ReverseSection;
+import de.adesso.anki.roadmap.Roadmap;
+import de.adesso.anki.roadmap.Section;
+
+/**
+ * Estimates where a vehicle is on a complete roadmap between its localization updates.
+ *
+ * Position updates tell the section the vehicle is on, its speed, offset and driving direction,
+ * transition updates tell when it crosses into the next section. In between, the vehicle is
+ * assumed to keep its speed along the center line of the track. Estimates are published like
+ * {@link FleetState} updates, so any thread can query them at a high rate without blocking
+ * the connector and without allocating.
+ *
+ * Positions and headings use the coordinates of the roadmap's pieces. The offset from road
+ * center is applied perpendicular to the heading, towards heading + 90 degrees.
+ */
+public class PositionEstimator {
+  private static final long DEFAULT_MAX_EXTRAPOLATION = TimeUnit.MILLISECONDS.toNanos(500);
+
+  private final Vehicle vehicle;
+  private final Roadmap roadmap;
+  private final StampedLock sequence = new StampedLock();
+
+  // geometry of the sections in driving order, in world coordinates
+  private final double[] starts;
+  private final double[] lengths;
+  private final double[] entryX;
+  private final double[] entryY;
+  private final double[] entryHeading;
+  private final double[] turns;
+  private final boolean[] reversed;
+  private final double length;
+
+  private volatile long maxExtrapolation = DEFAULT_MAX_EXTRAPOLATION;
+
+  // written by the message thread under the sequence lock
+  private boolean localized;
+  private double distance;
+  private double speed;
+  private double offset;
+  private boolean forward;
+  private long time;
+
+  private final TransientMessageListener<LocalizationPositionUpdateMessage> positionListener = this::onPosition;
+  private final TransientMessageListener<LocalizationTransitionUpdateMessage> transitionListener = this::onTransition;
+  private final TransientMessageListener<VehicleDelocalizedMessage> delocalizedListener = this::onDelocalized;
+
+  /**
+   * @throws IllegalArgumentException if the roadmap is not complete
+   */
+  public PositionEstimator(Vehicle vehicle, Roadmap roadmap) {
+    if (!roadmap.isComplete()) {
+      throw new IllegalArgumentException("roadmap is not complete");
+    }
+    this.vehicle = vehicle;
+    this.roadmap = roadmap;
+
+    int size = roadmap.size();
+    starts = new double[size];
+    lengths = new double[size];
+    entryX = new double[size];
+    entryY = new double[size];
+    entryHeading = new double[size];
+    turns = new double[size];
+    reversed = new boolean[size];
+    length = roadmap.getLength();
+
+    MutablePosition entry = new MutablePosition();
+    MutablePosition exit = new MutablePosition();
+    for (int i = 0; i < size; i++) {
+      Section section = roadmap.getSection(i);
+      Position piece = section.getPiece().getPosition();
+      entry.set(piece).transform(section.getEntry());
+      exit.set(piece).transform(section.getExit());
+
+      starts[i] = roadmap.getDistance(i);
+      lengths[i] = roadmap.getLength(i);
+      entryX[i] = entry.getX();
+      entryY[i] = entry.getY();
+      entryHeading[i] = entry.getAngle();
+      turns[i] = (exit.getAngle() - entry.getAngle() + 540) % 360 - 180;
+      reversed[i] = section instanceof ReverseSection;
+    }
+  }
+
+  /**
+   * Starts following the vehicle's localization updates.
+   */
+  public void start() {
+    vehicle.addMessageListener(LocalizationPositionUpdateMessage.class, positionListener);
+    vehicle.addMessageListener(LocalizationTransitionUpdateMessage.class, transitionListener);
+    vehicle.addMessageListener(VehicleDelocalizedMessage.class, delocalizedListener);
+  }
+
+  public void stop() {
+    vehicle.removeMessageListener(LocalizationPositionUpdateMessage.class, positionListener);
+    vehicle.removeMessageListener(LocalizationTransitionUpdateMessage.class, transitionListener);
+    vehicle.removeMessageListener(VehicleDelocalizedMessage.class, delocalizedListener);
+  }
+
+  /**
+   * Limits how far estimates are extrapolated past the last update, 500 ms by default.
+   * A vehicle that stops sending updates is assumed to stand still after that time.
+   */
+  public void setMaxExtrapolation(long duration, TimeUnit unit) {
+    this.maxExtrapolation = unit.toNanos(duration);
+  }
+
+  public Roadmap getRoadmap() {
+    return roadmap;
+  }
+
+  /**
+   * Estimates the distance along the center line from the entry of the roadmap's anchor.
+   *
+   * @param nanoTime a System.nanoTime() value
+   * @return the distance in mm, or NaN if the vehicle is not localized on the roadmap
+   */
+  public double estimateDistance(long nanoTime) {
+    while (true) {
+      long stamp = sequence.tryOptimisticRead();
+      double estimate = localized ? extrapolate(nanoTime) : Double.NaN;
+      if (sequence.validate(stamp)) {
+        return estimate;
+      }
+      Thread.yield();
+    }
+  }
+
+  /**
+   * Estimates the position and heading of the vehicle.
+   *
+   * @param nanoTime a System.nanoTime() value
+   * @param position receives the estimate
+   * @return false if the vehicle is not localized on the roadmap, the position is unchanged then
+   */
+  public boolean estimate(long nanoTime, MutablePosition position) {
+    double estimate;
+    double lateral;
+    boolean heading;
+    while (true) {
+      long stamp = sequence.tryOptimisticRead();
+      boolean valid = localized;
+      estimate = valid ? extrapolate(nanoTime) : 0;
+      lateral = offset;
+      heading = forward;
+      if (sequence.validate(stamp)) {
+        if (!valid) {
+          return false;
+        }
+        break;
+      }
+      Thread.yield();
+    }
+
+    int section = sectionAt(estimate);
+    double along = estimate - starts[section];
+    double x = entryX[section];
+    double y = entryY[section];
+    double angle = entryHeading[section];
+    double start = Math.toRadians(angle);
+
+    if (turns[section] == 0) {
+      x += along * Math.cos(start);
+      y -= along * Math.sin(start);
+    }
+    else {
+      double turn = Math.toRadians(turns[section]) * along / lengths[section];
+      double radius = lengths[section] / Math.abs(Math.toRadians(turns[section]));
+      double sign = Math.signum(turns[section]);
+      x += radius * sign * (Math.sin(start + turn) - Math.sin(start));
+      y += radius * sign * (Math.cos(start + turn) - Math.cos(start));
+      angle += Math.toDegrees(turn);
+    }
+
+    if (!heading) {
+      angle += 180;
+    }
+    double side = Math.toRadians(angle + 90);
+    x += lateral * Math.cos(side);
+    y -= lateral * Math.sin(side);
+
+    position.set(x, y, angle);
+    return true;
+  }
+
+  private double extrapolate(long nanoTime) {
+    long elapsed = Math.min(Math.max(0, nanoTime - time), maxExtrapolation);
+    double travelled = speed * elapsed / 1e9;
+    return wrap(forward ? distance + travelled : distance - travelled);
+  }
+
+  private double wrap(double distance) {
+    distance %= length;
+    return distance < 0 ? distance + length : distance;
+  }
+
+  private int sectionAt(double distance) {
+    int index = Arrays.binarySearch(starts, distance);
+    return index >= 0 ? index : -index - 2;
+  }
+
+  /**
+   * @return the point of the section closest to the given distance
+   */
+  private double nearest(double distance, int section) {
+    double ahead = wrap(distance - starts[section]);
+    if (ahead < lengths[section]) {
+      return distance;
+    }
+    double behind = length - ahead;
+    return behind < ahead - lengths[section] ? starts[section] : wrap(starts[section] + lengths[section] - 1e-6);
+  }
+
+  private void onPosition(LocalizationPositionUpdateMessage message) {
+    int section = roadmap.indexOf(message.getRoadPieceId(), message.getLocationId());
+    if (section < 0) {
+      return;
+    }
+    Section reported = roadmap.getPiece(section).getSectionByLocation(message.getLocationId(), message.isParsedReverse());
+    boolean direction = (reported instanceof ReverseSection) == reversed[section];
+
+    long now = System.nanoTime();
+    long stamp = sequence.writeLock();
+    try {
+      double current;
+      if (localized) {
+        current = nearest(extrapolate(now), section);
+      }
+      else {
+        current = direction ? starts[section] : wrap(starts[section] + lengths[section] - 1e-6);
+      }
+      localized = true;
+      distance = current;
+      speed = message.getSpeed();
+      offset = message.getOffsetFromRoadCenter();
+      forward = direction;
+      time = now;
+    } finally {
+      sequence.unlockWrite(stamp);
+    }
+  }
+
+  private void onTransition(LocalizationTransitionUpdateMessage message) {
+    long now = System.nanoTime();
+    long stamp = sequence.writeLock();
+    try {
+      if (!localized) {
+        return;
+      }
+      // the vehicle has crossed the section boundary closest to the estimate,
+      // move the estimate up to that boundary unless it is already past it
+      double current = extrapolate(now);
+      int section = sectionAt(current);
+      boolean firstHalf = current - starts[section] < lengths[section] / 2;
+      if (forward && !firstHalf) {
+        current = wrap(starts[section] + lengths[section]);
+      }
+      else if (!forward && firstHalf) {
+        current = wrap(starts[section] - 1e-6);
+      }
+      distance = current;
+      time = now;
+    } finally {
+      sequence.unlockWrite(stamp);
+    }
+  }
+
+  private void onDelocalized(VehicleDelocalizedMessage message) {
+    long stamp = sequence.writeLock();
+    try {
+      localized = false;
+    } finally {
+      sequence.unlockWrite(stamp);
+    }
+  }
+}
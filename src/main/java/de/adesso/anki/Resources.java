@@ -0,0 +1,65 @@
+package de.adesso.anki;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Accounts for the sockets and threads held by the library, so that long running applications
+ * can check that connectors, monitors and publishers they no longer use were released.
+ *
+ * All threads of the library are daemon threads whose names start with "anki-". A thread is
+ * counted from its start until its task returns. A socket is counted from opening the connection
+ * to a gateway until it is closed, by {@link AnkiConnector#close()} or by a reconnect.
+ */
+public final class Resources {
+  private static final AtomicInteger openSockets = new AtomicInteger();
+  private static final AtomicInteger liveThreads = new AtomicInteger();
+
+  private Resources() {
+  }
+
+  /**
+   * @return the number of open sockets to gateways
+   */
+  public static int getOpenSockets() {
+    return openSockets.get();
+  }
+
+  /**
+   * @return the number of running threads started by the library, including idle pool threads
+   */
+  public static int getLiveThreads() {
+    return liveThreads.get();
+  }
+
+  static void socketOpened() {
+    openSockets.incrementAndGet();
+  }
+
+  static void socketClosed() {
+    openSockets.decrementAndGet();
+  }
+
+  /**
+   * Creates an unstarted daemon thread that is counted while it runs.
+   */
+  static Thread newThread(String name, Runnable task) {
+    Thread thread = new Thread(() -> {
+      liveThreads.incrementAndGet();
+      try {
+        task.run();
+      } finally {
+        liveThreads.decrementAndGet();
+      }
+    }, name);
+    thread.setDaemon(true);
+    return thread;
+  }
+
+  /**
+   * Returns a factory of daemon threads with the given name that are counted while they run.
+   */
+  static ThreadFactory threadFactory(String name) {
+    return (runnable) -> newThread(name, runnable);
+  }
+}
@@ -1,69 +1,479 @@
 package de.adesso.anki;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
 import de.adesso.anki.messages.LocalizationPositionUpdateMessage;
 import de.adesso.anki.messages.LocalizationTransitionUpdateMessage;
 import de.adesso.anki.messages.SetSpeedMessage;
+import de.adesso.anki.messages.VehicleDelocalizedMessage;
+import de.adesso.anki.roadmap.ReverseSection;
 import de.adesso.anki.roadmap.Roadmap;
+import de.adesso.anki.roadmap.RoadmapCache;
+import de.adesso.anki.roadmap.roadpieces.Roadpiece;
 
+/**
+ * Scans the track layout by driving one or more vehicles around it.
+ *
+ * Sections are taken from the roadpiece ids of position updates, so missed or duplicated
+ * transition updates do not break the scan. A section counts once it was read twice in a row or
+ * between two transitions; single noisy reads are ignored. The sections of all vehicles are fused
+ * into one graph of which section follows which, where the successor seen most often wins, and a
+ * vehicle that gets delocalized starts a new chain. {@link #getRoadmap()} returns the sections
+ * linked so far at any time. The scan is complete when the sections form a ring that closes
+ * geometrically.
+ *
+ * If a cache is set, the scan can also complete from a known layout: once the sections a vehicle
+ * drove in a row match exactly one cached layout, the vehicle has to drive as many further
+ * sections in the order of that layout before the scan finishes with it. Layouts rebuilt from
+ * the same pieces often share a few sections in a row, so a match alone is not trusted.
+ */
 public class RoadmapScanner {
+  private static final RoadmapCache DEFAULT_CACHE = new RoadmapCache();
+
+  private final Map<Vehicle, Observer> observers;
+
+  // successor counts by directed section key, see key()
+  private final Map<Integer, Map<Integer, Integer>> successors = new HashMap<>();
+  private final Map<Integer, Integer> locationIds = new HashMap<>();
+  private final Map<Integer, Roadpiece> prototypes = new HashMap<>();
+
+  private RoadmapCache cache;
+  private int speed = 500;
+  private int acceleration = 12500;
+  private int minReads = 2;
+  private int matchLength = 3;
 
-  private Vehicle vehicle;
+  private int origin = -1;
   private Roadmap roadmap;
-  
-  private LocalizationPositionUpdateMessage lastPosition;
-  
+  private boolean complete;
+  private boolean scanning;
+
   public RoadmapScanner(Vehicle vehicle) {
-    this.vehicle = vehicle;
+    this(Collections.singletonList(vehicle));
+  }
+
+  /**
+   * Scans with several vehicles at once, which may drive in either direction.
+   */
+  public RoadmapScanner(Collection<Vehicle> vehicles) {
+    this.observers = new LinkedHashMap<>();
+    for (Vehicle vehicle : vehicles) {
+      observers.put(vehicle, new Observer(vehicle));
+    }
     this.roadmap = new Roadmap();
   }
-  
-  public void startScanning() {
-    vehicle.addMessageListener(
-        LocalizationPositionUpdateMessage.class,
-        (message) -> handlePositionUpdate(message)
-    );
-    
-    vehicle.addMessageListener(
-        LocalizationTransitionUpdateMessage.class,
-        (message) -> handleTransitionUpdate(message)
-    );
-    
-    vehicle.sendMessage(new SetSpeedMessage(500, 12500));
-  }
-  
-  public void stopScanning() {
-    vehicle.sendMessage(new SetSpeedMessage(0, 12500));
-  }
-  
-  public boolean isComplete() {
-    return roadmap.isComplete();
-  }
-  
-  public Roadmap getRoadmap() {
+
+  /**
+   * @return a cache shared by all scanners of this process that opt in to it with
+   *         {@link #setCache(RoadmapCache)}
+   */
+  public static RoadmapCache getDefaultCache() {
+    return DEFAULT_CACHE;
+  }
+
+  /**
+   * Sets the cache that complete roadmaps are stored in and known layouts are matched against,
+   * or null to always scan the whole track, which is the default.
+   */
+  public synchronized void setCache(RoadmapCache cache) {
+    this.cache = cache;
+  }
+
+  /**
+   * Sets the speed vehicles drive at while scanning, 500 mm/s by default.
+   */
+  public synchronized void setSpeed(int speed, int acceleration) {
+    this.speed = speed;
+    this.acceleration = acceleration;
+  }
+
+  /**
+   * Sets how often a roadpiece must be read in a row to count without surrounding transitions,
+   * 2 by default.
+   */
+  public synchronized void setMinReads(int minReads) {
+    this.minReads = minReads;
+  }
+
+  /**
+   * Sets how many sections in a row must match a cached layout, and how many further sections
+   * must follow it, before the scan finishes with that layout, 3 by default.
+   */
+  public synchronized void setMatchLength(int matchLength) {
+    if (matchLength < 1) {
+      throw new IllegalArgumentException("at least one section must match: " + matchLength);
+    }
+    this.matchLength = matchLength;
+    for (Observer observer : observers.values()) {
+      observer.forget();
+    }
+  }
+
+  public synchronized void startScanning() {
+    scanning = true;
+    for (Observer observer : observers.values()) {
+      observer.register();
+      observer.vehicle.sendMessage(new SetSpeedMessage(speed, acceleration));
+    }
+  }
+
+  public synchronized void stopScanning() {
+    if (!scanning) {
+      return;
+    }
+    scanning = false;
+    for (Observer observer : observers.values()) {
+      observer.unregister();
+      observer.vehicle.sendMessage(new SetSpeedMessage(0, acceleration));
+    }
+  }
+
+  public synchronized boolean isComplete() {
+    return complete;
+  }
+
+  /**
+   * @return the complete roadmap, or a roadmap of the longest chain of sections linked so far
+   */
+  public synchronized Roadmap getRoadmap() {
+    if (roadmap == null) {
+      roadmap = build();
+    }
     return roadmap;
   }
-  
-  public void reset(){
-	  this.roadmap = new Roadmap();
-	  this.lastPosition = null;
+
+  public synchronized void reset() {
+    successors.clear();
+    locationIds.clear();
+    for (Observer observer : observers.values()) {
+      observer.reset();
+    }
+    origin = -1;
+    roadmap = new Roadmap();
+    complete = false;
+  }
+
+  protected synchronized void handlePositionUpdate(Vehicle vehicle, LocalizationPositionUpdateMessage message) {
+    Observer observer = observers.get(vehicle);
+    int key = key(message.getRoadPieceId(), message.getLocationId(), message.isParsedReverse());
+    if (complete || observer == null || key < 0) {
+      return;
+    }
+
+    if (key != observer.candidate) {
+      observer.candidate = key;
+      observer.candidateLocation = message.getLocationId();
+      observer.reads = 0;
+      observer.entered = observer.transition;
+      observer.confirmed = false;
+    }
+    observer.reads++;
+    observer.transition = false;
+
+    if (!observer.confirmed && observer.reads >= minReads) {
+      confirm(observer);
+    }
+  }
+
+  /**
+   * Handles a transition update of a scanner with a single vehicle. Scanners with several
+   * vehicles call {@link #handleTransitionUpdate(Vehicle, LocalizationTransitionUpdateMessage)}
+   * instead.
+   *
+   * @throws IllegalStateException if the scanner has several vehicles
+   */
+  protected synchronized void handleTransitionUpdate(LocalizationTransitionUpdateMessage message) {
+    if (observers.size() != 1) {
+      throw new IllegalStateException("scanner has " + observers.size() + " vehicles");
+    }
+    handleTransitionUpdate(observers.keySet().iterator().next(), message);
+  }
+
+  protected synchronized void handleTransitionUpdate(Vehicle vehicle, LocalizationTransitionUpdateMessage message) {
+    Observer observer = observers.get(vehicle);
+    if (complete || observer == null) {
+      return;
+    }
+    observer.transition = true;
+
+    // a section read between two transitions counts even if it was read only once
+    if (observer.candidate >= 0 && !observer.confirmed && observer.entered) {
+      confirm(observer);
+    }
+  }
+
+  protected synchronized void handleDelocalized(Vehicle vehicle) {
+    Observer observer = observers.get(vehicle);
+    if (observer != null) {
+      observer.reset();
+    }
+  }
+
+  private void confirm(Observer observer) {
+    int key = observer.candidate;
+    observer.confirmed = true;
+    if (key == observer.last) {
+      // back on the same section after a noisy read
+      return;
+    }
+
+    locationIds.putIfAbsent(key, observer.candidateLocation);
+    locationIds.putIfAbsent(key ^ 1, observer.candidateLocation);
+    if (origin < 0) {
+      origin = key;
+    }
+    if (observer.last >= 0) {
+      count(observer.last, key);
+      count(key ^ 1, observer.last ^ 1);
+      roadmap = null;
+    }
+    observer.last = key;
+    observer.remember(key);
+
+    if (observer.match != null) {
+      verify(observer, key);
+      if (complete) {
+        return;
+      }
+    }
+    if (observer.match == null && cache != null && observer.recent >= matchLength) {
+      match(observer);
+    }
+
+    if (isRing()) {
+      Roadmap candidate = build();
+      if (candidate.isComplete()) {
+        if (cache != null) {
+          cache.put(candidate);
+        }
+        finish(candidate);
+      }
+    }
+  }
+
+  /**
+   * Looks up the layout the vehicle's recent sections belong to, which then has to be verified.
+   */
+  private void match(Observer observer) {
+    int[] roadpieceIds = new int[matchLength];
+    int[] locations = new int[matchLength];
+    for (int i = 0; i < matchLength; i++) {
+      int recentKey = observer.recentKeys[(observer.recent - matchLength + i) % matchLength];
+      roadpieceIds[i] = recentKey >> 2;
+      locations[i] = locationIds.get(recentKey);
+    }
+    Roadmap match = cache.match(roadpieceIds, locations, matchLength);
+    if (match == null) {
+      return;
+    }
+
+    int size = match.size();
+    int index = match.indexOf(roadpieceIds[matchLength - 1], locations[matchLength - 1]);
+    int step = 0;
+    if (matchLength > 1) {
+      int previous = match.indexOf(roadpieceIds[matchLength - 2], locations[matchLength - 2]);
+      step = (previous + 1) % size == index ? 1 : -1;
+    }
+    observer.match = match;
+    observer.matchIndex = index;
+    observer.matchStep = step;
+    observer.verified = 0;
   }
 
-  private void handlePositionUpdate(LocalizationPositionUpdateMessage message) {
-    lastPosition = message;
+  /**
+   * Checks that a section follows the layout the vehicle's previous sections matched, and
+   * finishes the scan with that layout once enough sections followed it.
+   */
+  private void verify(Observer observer, int key) {
+    Roadmap match = observer.match;
+    int size = match.size();
+    int index = match.indexOf(key >> 2, locationIds.get(key));
+    int step = observer.matchStep;
+    if (step == 0) {
+      // a single matched section does not tell the direction
+      step = (observer.matchIndex + 1) % size == index ? 1 : -1;
+    }
+    if (index < 0 || index != Math.floorMod(observer.matchIndex + step, size)) {
+      observer.match = null;
+      return;
+    }
+
+    observer.matchIndex = index;
+    observer.matchStep = step;
+    observer.verified++;
+    if (observer.verified >= matchLength) {
+      finish(match);
+    }
+  }
+
+  private void finish(Roadmap roadmap) {
+    this.roadmap = roadmap;
+    this.complete = true;
+    stopScanning();
+  }
+
+  private void count(int from, int to) {
+    successors.computeIfAbsent(from, k -> new LinkedHashMap<>()).merge(to, 1, Integer::sum);
+  }
+
+  /**
+   * @return the directed section most often seen after the given one, or -1
+   */
+  private int successor(int key) {
+    Map<Integer, Integer> counts = successors.get(key);
+    int best = -1;
+    int bestCount = 0;
+    if (counts != null) {
+      for (Map.Entry<Integer, Integer> entry : counts.entrySet()) {
+        if (entry.getValue() > bestCount) {
+          best = entry.getKey();
+          bestCount = entry.getValue();
+        }
+      }
+    }
+    return best;
+  }
+
+  private int predecessor(int key) {
+    int successor = successor(key ^ 1);
+    return successor >= 0 ? successor ^ 1 : -1;
   }
 
-  protected void handleTransitionUpdate(LocalizationTransitionUpdateMessage message) {
-    if (lastPosition != null) {
-      roadmap.add(
-          lastPosition.getRoadPieceId(),
-          lastPosition.getLocationId(),
-          lastPosition.isParsedReverse()
-      );
-      
-      if (roadmap.isComplete()) {
-        this.stopScanning();
+  private boolean isRing() {
+    Set<Integer> visited = new HashSet<>();
+    for (int key = successor(origin); key >= 0 && visited.add(key); key = successor(key)) {
+      if (key == origin) {
+        return true;
       }
     }
+    return false;
+  }
+
+  /**
+   * Builds a roadmap of the longest chain of sections through the first section seen.
+   */
+  private Roadmap build() {
+    Roadmap roadmap = new Roadmap();
+    if (origin < 0) {
+      return roadmap;
+    }
+
+    int head = origin;
+    Set<Integer> visited = new HashSet<>();
+    visited.add(head);
+    for (int key = predecessor(head); key >= 0 && key != origin && visited.add(key); key = predecessor(key)) {
+      head = key;
+    }
+
+    visited.clear();
+    for (int key = head; key >= 0 && visited.add(key); key = successor(key)) {
+      int locationId = locationIds.get(key);
+      Roadpiece piece = prototype(key >> 2);
+      boolean reverse = isReverse(piece, locationId, false) != ((key & 1) == 1);
+      roadmap.add(key >> 2, locationId, reverse);
+    }
+    return roadmap;
+  }
+
+  /**
+   * Identifies a section and the direction it is driven in as
+   * [roadpiece id: 8 bit][section of the piece: 1 bit][reverse: 1 bit].
+   *
+   * @return the key, or -1 if the roadpiece id is unknown
+   */
+  private int key(int roadpieceId, int locationId, boolean reverse) {
+    Roadpiece piece = prototype(roadpieceId);
+    if (piece == null) {
+      return -1;
+    }
+    int section = piece.getSectionIndex(locationId) & 1;
+    return (roadpieceId << 2) | (section << 1) | (isReverse(piece, locationId, reverse) ? 1 : 0);
+  }
+
+  private Roadpiece prototype(int roadpieceId) {
+    return prototypes.computeIfAbsent(roadpieceId, Roadpiece::createFromId);
+  }
+
+  private static boolean isReverse(Roadpiece piece, int locationId, boolean reverse) {
+    return piece.getSectionByLocation(locationId, reverse) instanceof ReverseSection;
+  }
+
+  private class Observer {
+    final Vehicle vehicle;
+
+    int[] recentKeys = new int[matchLength];
+    int recent;
+    Roadmap match;
+    int matchIndex;
+    int matchStep;
+    int verified;
+
+    int last = -1;
+    int candidate = -1;
+    int candidateLocation;
+    int reads;
+    boolean entered;
+    boolean confirmed;
+    boolean transition;
+
+    final TransientMessageListener<LocalizationPositionUpdateMessage> positionListener;
+    final TransientMessageListener<LocalizationTransitionUpdateMessage> transitionListener;
+    final TransientMessageListener<VehicleDelocalizedMessage> delocalizedListener;
+
+    Observer(Vehicle vehicle) {
+      this.vehicle = vehicle;
+      this.positionListener = (message) -> handlePositionUpdate(vehicle, message);
+      this.transitionListener = (message) -> {
+        if (observers.size() == 1) {
+          handleTransitionUpdate(message);
+        }
+        else {
+          handleTransitionUpdate(vehicle, message);
+        }
+      };
+      this.delocalizedListener = (message) -> handleDelocalized(vehicle);
+    }
+
+    void register() {
+      vehicle.addMessageListener(LocalizationPositionUpdateMessage.class, positionListener);
+      vehicle.addMessageListener(LocalizationTransitionUpdateMessage.class, transitionListener);
+      vehicle.addMessageListener(VehicleDelocalizedMessage.class, delocalizedListener);
+    }
+
+    void unregister() {
+      vehicle.removeMessageListener(LocalizationPositionUpdateMessage.class, positionListener);
+      vehicle.removeMessageListener(LocalizationTransitionUpdateMessage.class, transitionListener);
+      vehicle.removeMessageListener(VehicleDelocalizedMessage.class, delocalizedListener);
+    }
+
+    void remember(int key) {
+      recentKeys[recent % recentKeys.length] = key;
+      recent++;
+    }
+
+    /**
+     * Forgets the recent sections and the layout they matched.
+     */
+    void forget() {
+      recentKeys = new int[matchLength];
+      recent = 0;
+      match = null;
+    }
+
+    void reset() {
+      forget();
+      last = -1;
+      candidate = -1;
+      reads = 0;
+      entered = false;
+      confirmed = false;
+      transition = false;
+    }
   }
-  
 }
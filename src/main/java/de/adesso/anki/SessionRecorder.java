@@ -0,0 +1,169 @@
+package de.adesso.anki;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Records the raw messages exchanged with vehicles to a memory-mapped, append-only log.
+ *
+ * The log starts with a header (magic "ANKI", 16 bit version, 16 bit reserved, 64 bit start time
+ * in epoch milliseconds), followed by records of the form
+ * [kind: 8 bit][length: 8 bit][vehicle: 16 bit][nanos: 64 bit][data: length bytes], all little
+ * endian. The nanos are counted from the start of the recording. A VEHICLE record introduces a
+ * vehicle number with the data "address;manufacturer data;local name", RECEIVED and SENT records
+ * hold a raw message of that vehicle. The log ends at the first zero byte where a record would
+ * start, so a log is readable up to its last record even if the recorder was never closed.
+ *
+ * Records are written into the mapped file under a short lock and without allocating,
+ * so a recorder can stay attached to a connector ({@link AnkiConnector#setRecorder}) while
+ * vehicles are driving. Use {@link SessionReplay} to read a log.
+ */
+public class SessionRecorder implements Closeable {
+  static final int MAGIC = 0x494b4e41; // "ANKI"
+  static final int VERSION = 1;
+  static final int HEADER_SIZE = 16;
+  static final int RECORD_HEADER_SIZE = 12;
+  static final int MAX_RECORD_SIZE = RECORD_HEADER_SIZE + 255;
+
+  static final int VEHICLE = 1;
+  static final int RECEIVED = 2;
+  static final int SENT = 3;
+
+  private static final long MAPPING_SIZE = 16 * 1024 * 1024;
+
+  private final FileChannel file;
+  private final Map<Vehicle, Integer> vehicleIds;
+  private final long startNanos;
+
+  private MappedByteBuffer mapping;
+  private long mappingStart;
+  private boolean closed;
+  private boolean failed;
+
+  /**
+   * Creates a new log file.
+   *
+   * @throws java.nio.file.FileAlreadyExistsException if the file exists
+   */
+  public SessionRecorder(Path path) throws IOException {
+    file = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    vehicleIds = new HashMap<>();
+    startNanos = System.nanoTime();
+
+    map(0);
+    mapping.putInt(MAGIC).putShort((short) VERSION).putShort((short) 0).putLong(System.currentTimeMillis());
+  }
+
+  /**
+   * Appends a message received from the vehicle.
+   *
+   * @param message raw message from the buffer's position to its limit, which are not changed
+   */
+  public void recordReceived(Vehicle vehicle, ByteBuffer message) {
+    record(RECEIVED, vehicle, message, message.position(), message.limit());
+  }
+
+  /**
+   * Appends a message sent to the vehicle.
+   *
+   * @param message raw message from the buffer's position to its limit, which are not changed
+   */
+  public void recordSent(Vehicle vehicle, ByteBuffer message) {
+    record(SENT, vehicle, message, message.position(), message.limit());
+  }
+
+  /**
+   * Appends the raw message in data[from, to).
+   */
+  synchronized void record(int kind, Vehicle vehicle, ByteBuffer data, int from, int to) {
+    if (closed || failed) {
+      return;
+    }
+    try {
+      Integer id = vehicleIds.get(vehicle);
+      if (id == null) {
+        id = define(vehicle);
+      }
+
+      reserve();
+      mapping.put((byte) kind).put((byte) (to - from)).putShort((short) id.intValue())
+          .putLong(System.nanoTime() - startNanos);
+      for (int i = from; i < to; i++) {
+        mapping.put(data.get(i));
+      }
+    } catch (IOException e) {
+      // recording must never break the connection, stop recording instead
+      e.printStackTrace();
+      failed = true;
+    }
+  }
+
+  private Integer define(Vehicle vehicle) throws IOException {
+    Integer id = vehicleIds.size();
+    if (id > 0xffff) {
+      throw new IOException("too many vehicles in one log");
+    }
+    AdvertisementData advertisement = vehicle.getAdvertisement();
+    byte[] definition = (vehicle.getAddress() + ";" + advertisement.getManufacturerData() + ";"
+        + advertisement.getLocalName()).getBytes(StandardCharsets.US_ASCII);
+    if (definition.length > 255) {
+      throw new IOException("vehicle definition too long: " + vehicle.getAddress());
+    }
+
+    reserve();
+    mapping.put((byte) VEHICLE).put((byte) definition.length).putShort((short) id.intValue())
+        .putLong(System.nanoTime() - startNanos).put(definition);
+    vehicleIds.put(vehicle, id);
+    return id;
+  }
+
+  private void reserve() throws IOException {
+    if (mapping.remaining() < MAX_RECORD_SIZE) {
+      map(mappingStart + mapping.position());
+    }
+  }
+
+  private void map(long position) throws IOException {
+    mapping = file.map(FileChannel.MapMode.READ_WRITE, position, MAPPING_SIZE);
+    mapping.order(ByteOrder.LITTLE_ENDIAN);
+    mappingStart = position;
+  }
+
+  /**
+   * Writes the recorded data to the storage device.
+   */
+  public synchronized void flush() {
+    if (!closed) {
+      mapping.force();
+    }
+  }
+
+  /**
+   * Stops recording and shrinks the file to the recorded size where the platform allows it.
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    mapping.force();
+    long size = mappingStart + mapping.position();
+    mapping = null;
+    try {
+      file.truncate(size);
+    } catch (IOException e) {
+      // files cannot be truncated while mapped on some platforms, the log ends at a zero byte anyway
+    }
+    file.close();
+  }
+}
@@ -0,0 +1,214 @@
+package de.adesso.anki;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import de.adesso.anki.messages.Message;
+
+/**
+ * Replays a log written by a {@link SessionRecorder}.
+ *
+ * The vehicles of the log are created when the replay is opened, so that listeners can be added
+ * before replaying. Received messages are parsed and passed through the vehicles' listeners as if
+ * they came from a connector. Sent messages are passed to the sent message listeners.
+ */
+public class SessionReplay implements Closeable {
+  private static final long MAPPING_SIZE = 64 * 1024 * 1024;
+
+  private final FileChannel file;
+  private final long size;
+  private final long startTime;
+  private final List<Vehicle> vehicles;
+  private final Map<Vehicle, ListenerList<MessageListener<Message>>> sentMessageListeners;
+
+  private volatile boolean flyweightDecoding;
+
+  private MappedByteBuffer mapping;
+  private long mappingStart;
+
+  /**
+   * Opens a log and reads its vehicles.
+   *
+   * @throws IOException if the file is not a session log
+   */
+  public SessionReplay(Path path) throws IOException {
+    file = FileChannel.open(path, StandardOpenOption.READ);
+    size = file.size();
+    vehicles = new ArrayList<>();
+    sentMessageListeners = new ConcurrentHashMap<>();
+
+    map(0);
+    if (mapping.remaining() < SessionRecorder.HEADER_SIZE || mapping.getInt() != SessionRecorder.MAGIC) {
+      file.close();
+      throw new IOException("not a session log: " + path);
+    }
+    int version = Short.toUnsignedInt(mapping.getShort());
+    if (version != SessionRecorder.VERSION) {
+      file.close();
+      throw new IOException("unsupported session log version: " + version);
+    }
+    mapping.getShort();
+    startTime = mapping.getLong();
+
+    while (nextRecord()) {
+      int kind = Byte.toUnsignedInt(mapping.get());
+      int length = Byte.toUnsignedInt(mapping.get());
+      mapping.position(mapping.position() + 10);
+      if (kind == SessionRecorder.VEHICLE) {
+        byte[] definition = new byte[length];
+        mapping.get(definition);
+        String[] parts = new String(definition, StandardCharsets.US_ASCII).split(";", 3);
+        vehicles.add(new Vehicle(null, parts[0], parts[1], parts[2]));
+      }
+      else {
+        mapping.position(mapping.position() + length);
+      }
+    }
+  }
+
+  /**
+   * @return the time the recording started, in epoch milliseconds
+   */
+  public long getStartTime() {
+    return startTime;
+  }
+
+  /**
+   * @return the vehicles of the log, in the order they were first recorded
+   */
+  public List<Vehicle> getVehicles() {
+    return Collections.unmodifiableList(vehicles);
+  }
+
+  /**
+   * @return the vehicle with the given address, or null if it is not part of the log
+   */
+  public Vehicle getVehicle(String address) {
+    for (Vehicle vehicle : vehicles) {
+      if (vehicle.getAddress().equals(address)) {
+        return vehicle;
+      }
+    }
+    return null;
+  }
+
+  public void addSentMessageListener(Vehicle vehicle, MessageListener<Message> listener) {
+    sentMessageListeners.computeIfAbsent(vehicle, v -> newListenerList()).add(listener);
+  }
+
+  public void removeSentMessageListener(Vehicle vehicle, MessageListener<Message> listener) {
+    ListenerList<MessageListener<Message>> listeners = sentMessageListeners.get(vehicle);
+    if (listeners != null) {
+      listeners.remove(listener);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static ListenerList<MessageListener<Message>> newListenerList() {
+    return new ListenerList<>((MessageListener<Message>[]) new MessageListener<?>[0]);
+  }
+
+  /**
+   * Decodes received localization updates into reusable messages while all of their listeners are
+   * {@link TransientMessageListener}s, like {@link AnkiConnector#setFlyweightDecoding(boolean)}.
+   */
+  public void setFlyweightDecoding(boolean flyweightDecoding) {
+    this.flyweightDecoding = flyweightDecoding;
+  }
+
+  /**
+   * Replays all messages of the log on the calling thread.
+   *
+   * @param speed 1 to replay in real time, 2 for twice as fast and so on,
+   *        or 0 to replay as fast as possible
+   * @return the number of messages replayed
+   */
+  public synchronized long replay(double speed) throws IOException, InterruptedException {
+    map(SessionRecorder.HEADER_SIZE);
+    long count = 0;
+    long start = System.nanoTime();
+
+    while (nextRecord()) {
+      int kind = Byte.toUnsignedInt(mapping.get());
+      int length = Byte.toUnsignedInt(mapping.get());
+      int vehicleId = Short.toUnsignedInt(mapping.getShort());
+      long nanos = mapping.getLong();
+      int end = mapping.position() + length;
+
+      if (kind == SessionRecorder.VEHICLE) {
+        mapping.position(end);
+        continue;
+      }
+
+      if (speed > 0) {
+        long delay = (long) (nanos / speed) - (System.nanoTime() - start);
+        if (delay > 0) {
+          TimeUnit.NANOSECONDS.sleep(delay);
+        }
+      }
+
+      Vehicle vehicle = vehicles.get(vehicleId);
+      int limit = mapping.limit();
+      mapping.limit(end);
+      try {
+        if (kind == SessionRecorder.RECEIVED) {
+          Message message = flyweightDecoding ? vehicle.decodeFlyweight(mapping) : null;
+          vehicle.fireMessageReceived(message != null ? message : Message.parse(mapping));
+        }
+        else if (kind == SessionRecorder.SENT) {
+          ListenerList<MessageListener<Message>> listeners = sentMessageListeners.get(vehicle);
+          if (listeners != null) {
+            Message message = Message.parse(mapping);
+            for (MessageListener<Message> listener : listeners.get()) {
+              listener.messageReceived(message);
+            }
+          }
+        }
+      } finally {
+        mapping.limit(limit);
+        mapping.position(end);
+      }
+      count++;
+    }
+    return count;
+  }
+
+  /**
+   * Positions the mapping at the next record.
+   *
+   * @return false at the end of the log
+   */
+  private boolean nextRecord() throws IOException {
+    if (mapping.remaining() < SessionRecorder.MAX_RECORD_SIZE && mappingStart + mapping.limit() < size) {
+      map(mappingStart + mapping.position());
+    }
+    if (mapping.remaining() < SessionRecorder.RECORD_HEADER_SIZE) {
+      return false;
+    }
+    return mapping.get(mapping.position()) != 0;
+  }
+
+  private void map(long position) throws IOException {
+    mapping = file.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAPPING_SIZE, size - position));
+    mapping.order(ByteOrder.LITTLE_ENDIAN);
+    mappingStart = position;
+  }
+
+  @Override
+  public void close() throws IOException {
+    file.close();
+  }
+}
@@ -0,0 +1,15 @@
+package de.adesso.anki;
+
+import de.adesso.anki.messages.Message;
+
+/**
+ * A message listener that does not keep a reference to the received message after
+ * {@link #messageReceived(Message)} returns.
+ *
+ * If flyweight decoding is enabled ({@link AnkiConnector#setFlyweightDecoding(boolean)}) and all
+ * listeners of a message type are transient, localization updates are decoded into a message
+ * instance that is reused for the next update of the same vehicle. Copy the values you need
+ * instead of storing the message or passing it to another thread.
+ */
+public interface TransientMessageListener<T extends Message> extends MessageListener<T> {
+}
@@ -1,138 +1,402 @@
-package de.adesso.anki;
-
-import java.io.IOException;
-import java.time.LocalTime;
-import com.google.common.collect.LinkedListMultimap;
-import com.google.common.collect.Multimap;
-
-import de.adesso.anki.messages.Message;
-
-// TODO: Manage connection status and fail gracefully if disconnected
-
-/**
- * Represents a vehicle and allows communicating with it.
- *
- * @author Yannick Eckey <yannick.eckey@adesso.de>
- */
-public class Vehicle {
-  
-  private String address;
-  private AdvertisementData advertisement;
-  
-  private AnkiConnector anki;
-  
-  private Multimap<Class<? extends Message>, MessageListener> listeners;
-  private MessageListener defaultListener;
-  
-  public String getAddress() {
-    return address;
-  }
-
-  public void setAddress(String address) {
-    this.address = address;
-  }
-
-  public AdvertisementData getAdvertisement() {
-    return advertisement;
-  }
-
-  public void setAdvertisement(AdvertisementData advertisement) {
-    this.advertisement = advertisement;
-  }
-
-  public String toString() {
-    return advertisement.toString();
-  }
-  
-  public void connect() {
-    try {
-      int count = 0;
-      int maxTries = 5;
-      boolean connected = false;
-      
-      while (!connected) {
-        try {
-          anki.connect(this);
-          connected = true;
-        } catch (RuntimeException e) {
-          if (++count == maxTries)
-            throw e;
-        }
-      }
-    } catch (InterruptedException e) {
-      // TODO Auto-generated catch block
-      e.printStackTrace();
-    }
-    
-    defaultListener = (message) -> fireMessageReceived(message);
-    anki.addMessageListener(this, defaultListener);
-  }
-  
-  public void disconnect() {
-	anki.removeMessageListener(this, defaultListener);
-    anki.disconnect(this);
-  }
-  
-  public void sendMessage(Message message) {
-    anki.sendMessage(this, message);
-    System.out.println(String.format("[%s] > %s: %s", LocalTime.now(), this, message));
-  }
-  
-  @Deprecated
-  public void addMessageListener(MessageListener listener) {
-    this.addMessageListener(Message.class, listener);
-  }
-  
-  @Deprecated
-  public void removeMessageListener(MessageListener listener) {
-    this.removeMessageListener(Message.class, listener);
-  }
-  
-  public <T extends Message> void addMessageListener(Class<T> klass, MessageListener<T> listener) {
-    this.listeners.put(klass, listener);
-  }
-  
-  public <T extends Message> void removeMessageListener(Class<T> klass, MessageListener<T> listener) {
-    this.listeners.remove(klass, listener);
-  }
-  
-  private <T extends Message> void fireMessageReceived(T message) {
-    for (MessageListener<T> l : this.listeners.get(Message.class)) {
-      l.messageReceived(message);
-    }
-    if (message.getClass() != Message.class) {
-      for (MessageListener<T> l : this.listeners.get(message.getClass())) {
-        l.messageReceived(message);
-      }
-    }
-  }
-  
-  public Vehicle(AnkiConnector anki, String address, String manufacturerData, String localName) {
-    try {
-		this.anki = new AnkiConnector(anki);
-	} catch (IOException e) {
-		this.anki = anki;
-	}
-    this.address = address;
-    this.advertisement = new AdvertisementData(manufacturerData, localName);
-    
-    this.listeners = LinkedListMultimap.create();
-  }
-
-  public String getColor() {
-    return advertisement.getModel().getColor();
-  }
-  
-  @Override
-  public int hashCode() {
-	return address.hashCode();
-  }
-  
-  @Override
-  public boolean equals(Object obj) {
-    if(obj instanceof Vehicle){
-    	return ((Vehicle) obj).getAddress().equals(this.getAddress());
-    }
-    return false;
-  }
-}
+package de.adesso.anki;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import de.adesso.anki.messages.BatteryLevelRequestMessage;
+import de.adesso.anki.messages.BatteryLevelResponseMessage;
+import de.adesso.anki.messages.ChangeLaneMessage;
+import de.adesso.anki.messages.LocalizationPositionUpdateMessage;
+import de.adesso.anki.messages.LocalizationTransitionUpdateMessage;
+import de.adesso.anki.messages.Message;
+import de.adesso.anki.messages.PingRequestMessage;
+import de.adesso.anki.messages.PingResponseMessage;
+import de.adesso.anki.messages.SetOffsetFromRoadCenterMessage;
+import de.adesso.anki.messages.SetSpeedMessage;
+import de.adesso.anki.messages.VersionRequestMessage;
+import de.adesso.anki.messages.VersionResponseMessage;
+
+/**
+ * Represents a vehicle and allows communicating with it.
+ *
+ * The vehicle remembers the last speed, lane change and offset sent to it, so that they can be
+ * sent again after the vehicle was reconnected (see {@link HealthMonitor}).
+ *
+ * @author Yannick Eckey <yannick.eckey@adesso.de>
+ */
+public class Vehicle {
+  
+  private String address;
+  private AdvertisementData advertisement;
+  
+  private AnkiConnector anki;
+  
+  private Map<Class<? extends Message>, ListenerList<MessageListener<?>>> listeners;
+  private MessageListener defaultListener;
+  private Map<Class<? extends Message>, Queue<CompletableFuture<Message>>> pendingResponses;
+  
+  private final LocalizationPositionUpdateMessage positionUpdate = new LocalizationPositionUpdateMessage();
+  private final LocalizationTransitionUpdateMessage transitionUpdate = new LocalizationTransitionUpdateMessage();
+  
+  private volatile SetSpeedMessage lastSpeed;
+  private volatile ChangeLaneMessage lastLane;
+  private volatile SetOffsetFromRoadCenterMessage lastOffset;
+  
+  public String getAddress() {
+    return address;
+  }
+
+  public void setAddress(String address) {
+    this.address = address;
+  }
+
+  public AdvertisementData getAdvertisement() {
+    return advertisement;
+  }
+
+  public void setAdvertisement(AdvertisementData advertisement) {
+    this.advertisement = advertisement;
+  }
+
+  public String toString() {
+    return advertisement.toString();
+  }
+
+  AnkiConnector getConnector() {
+    return anki;
+  }
+  
+  /**
+   * Connects to the vehicle and waits until it is connected.
+   * A failed attempt is retried up to four times, waiting longer after each attempt.
+   */
+  public void connect() {
+    try {
+      int count = 0;
+      int maxTries = 5;
+      boolean connected = false;
+      
+      while (!connected) {
+        try {
+          connectAsync().get();
+          connected = true;
+        } catch (ExecutionException e) {
+          if (++count == maxTries)
+            throw new RuntimeException("connect failed", e.getCause());
+          Thread.sleep(Backoff.delay(count, 100, 2000));
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+  
+  /**
+   * Connects to the vehicle without blocking, using the connector's timeout.
+   */
+  public CompletableFuture<Void> connectAsync() {
+    return connectAsync(anki.getTimeout(TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS);
+  }
+  
+  /**
+   * Connects to the vehicle without blocking.
+   * 
+   * @return a future that is completed once the vehicle is connected
+   */
+  public CompletableFuture<Void> connectAsync(long timeout, TimeUnit unit) {
+    synchronized (this) {
+      if (defaultListener == null) {
+        defaultListener = (TransientMessageListener<Message>) (message) -> fireMessageReceived(message);
+        anki.addMessageListener(this, defaultListener);
+      }
+    }
+    return anki.connectAsync(this, timeout, unit);
+  }
+  
+  public void disconnect() {
+    try {
+      disconnectAsync().get();
+    } catch (ExecutionException e) {
+      throw new RuntimeException("disconnect failed", e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+  
+  /**
+   * Disconnects from the vehicle without blocking, using the connector's timeout.
+   */
+  public CompletableFuture<Void> disconnectAsync() {
+    return disconnectAsync(anki.getTimeout(TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS);
+  }
+  
+  /**
+   * Disconnects from the vehicle without blocking.
+   * 
+   * @return a future that is completed once the vehicle is disconnected
+   */
+  public CompletableFuture<Void> disconnectAsync(long timeout, TimeUnit unit) {
+    synchronized (this) {
+      if (defaultListener != null) {
+        anki.removeMessageListener(this, defaultListener);
+        defaultListener = null;
+      }
+    }
+    return anki.disconnectAsync(this, timeout, unit);
+  }
+  
+  /**
+   * Sends a request and waits for the vehicle's response without blocking, using the
+   * connector's timeout.
+   */
+  public <T extends Message> CompletableFuture<T> request(Message request, Class<T> responseType) {
+    return request(request, responseType, anki.getTimeout(TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS);
+  }
+  
+  /**
+   * Sends a request and waits for the vehicle's response without blocking.
+   * Responses are matched to requests of the same response type in the order they were sent.
+   * 
+   * @param request message to send
+   * @param responseType message class the vehicle responds with
+   * @return a future that is completed with the response
+   */
+  @SuppressWarnings("unchecked")
+  public <T extends Message> CompletableFuture<T> request(Message request, Class<T> responseType, long timeout, TimeUnit unit) {
+    CompletableFuture<Message> future = new CompletableFuture<>();
+    Queue<CompletableFuture<Message>> pending =
+        pendingResponses.computeIfAbsent(responseType, k -> new ConcurrentLinkedQueue<>());
+    pending.add(future);
+    anki.expire(future, timeout, unit, () -> pending.remove(future));
+    
+    try {
+      sendMessage(request);
+    } catch (RuntimeException e) {
+      pending.remove(future);
+      future.completeExceptionally(e);
+    }
+    return (CompletableFuture<T>) future;
+  }
+  
+  public CompletableFuture<PingResponseMessage> ping() {
+    return ping(anki.getTimeout(TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS);
+  }
+  
+  /**
+   * Pings the vehicle without blocking.
+   * 
+   * @return a future that is completed with the response, or fails if the vehicle does not
+   *         answer within the given time
+   */
+  public CompletableFuture<PingResponseMessage> ping(long timeout, TimeUnit unit) {
+    Metrics metrics = anki.getMetrics();
+    if (!metrics.isEnabled()) {
+      return request(new PingRequestMessage(), PingResponseMessage.class, timeout, unit);
+    }
+    long start = System.nanoTime();
+    CompletableFuture<PingResponseMessage> future =
+        request(new PingRequestMessage(), PingResponseMessage.class, timeout, unit);
+    future.thenRun(() -> metrics.pinged(this, System.nanoTime() - start));
+    return future;
+  }
+  
+  public CompletableFuture<BatteryLevelResponseMessage> requestBatteryLevel() {
+    return request(new BatteryLevelRequestMessage(), BatteryLevelResponseMessage.class);
+  }
+  
+  public CompletableFuture<VersionResponseMessage> requestVersion() {
+    return request(new VersionRequestMessage(), VersionResponseMessage.class);
+  }
+  
+  /**
+   * Queues a message to be sent to the vehicle without blocking.
+   * An unsent speed, lane change or offset message is replaced by a newer one of the same type.
+   * 
+   * @throws IllegalStateException if too many messages are waiting to be sent
+   */
+  public void sendMessage(Message message) {
+    remember(message);
+    anki.sendMessage(this, message);
+  }
+  
+  /**
+   * Keeps the message if it is part of the driving state that is restored by
+   * {@link #replayCommands()}.
+   */
+  void remember(Message message) {
+    if (message instanceof SetSpeedMessage) {
+      lastSpeed = (SetSpeedMessage) message;
+    }
+    else if (message instanceof ChangeLaneMessage) {
+      lastLane = (ChangeLaneMessage) message;
+    }
+    else if (message instanceof SetOffsetFromRoadCenterMessage) {
+      lastOffset = (SetOffsetFromRoadCenterMessage) message;
+    }
+  }
+  
+  /**
+   * Sends the last offset, lane change and speed sent to the vehicle again, e.g. after the
+   * vehicle was reconnected and has forgotten them.
+   */
+  public void replayCommands() {
+    SetOffsetFromRoadCenterMessage offset = lastOffset;
+    ChangeLaneMessage lane = lastLane;
+    SetSpeedMessage speed = lastSpeed;
+    if (offset != null) {
+      anki.sendMessage(this, offset);
+    }
+    if (lane != null) {
+      anki.sendMessage(this, lane);
+    }
+    if (speed != null) {
+      anki.sendMessage(this, speed);
+    }
+  }
+  
+  @Deprecated
+  public void addMessageListener(MessageListener listener) {
+    this.addMessageListener(Message.class, listener);
+  }
+  
+  @Deprecated
+  public void removeMessageListener(MessageListener listener) {
+    this.removeMessageListener(Message.class, listener);
+  }
+  
+  public <T extends Message> void addMessageListener(Class<T> klass, MessageListener<T> listener) {
+    this.listeners.computeIfAbsent(klass, k -> new ListenerList<>(new MessageListener<?>[0])).add(listener);
+  }
+  
+  public <T extends Message> void removeMessageListener(Class<T> klass, MessageListener<T> listener) {
+    ListenerList<MessageListener<?>> classListeners = this.listeners.get(klass);
+    if (classListeners != null) {
+      classListeners.remove(listener);
+    }
+  }
+  
+  /**
+   * Publishes the messages of the given class received from this vehicle, see
+   * {@link MessagePublisher}.
+   */
+  public <T extends Message> MessagePublisher<T> publisher(Class<T> klass) {
+    return MessagePublisher.of(this, klass);
+  }
+  
+  /**
+   * Decodes a localization update into this vehicle's reusable message instance, if every listener
+   * that would receive it is transient and no request is waiting for it.
+   * Must only be called by the thread that dispatches this vehicle's messages.
+   * 
+   * @return the decoded message, or null if the message has to be parsed into a new instance
+   */
+  Message decodeFlyweight(ByteBuffer frame) {
+    int type = Byte.toUnsignedInt(frame.get(frame.position() + 1));
+    Message flyweight;
+    if (type == LocalizationPositionUpdateMessage.TYPE) {
+      flyweight = positionUpdate;
+    }
+    else if (type == LocalizationTransitionUpdateMessage.TYPE) {
+      flyweight = transitionUpdate;
+    }
+    else {
+      return null;
+    }
+    
+    Queue<CompletableFuture<Message>> pending = pendingResponses.get(flyweight.getClass());
+    if ((pending != null && !pending.isEmpty())
+        || !isTransient(listeners.get(Message.class))
+        || !isTransient(listeners.get(flyweight.getClass()))) {
+      return null;
+    }
+    return Message.parse(frame, flyweight);
+  }
+  
+  /**
+   * @return whether the given listeners are all {@link TransientMessageListener}s
+   */
+  static boolean isTransient(ListenerList<MessageListener<?>> listeners) {
+    if (listeners == null) {
+      return true;
+    }
+    MessageListener<?>[] current = listeners.get();
+    for (int i = 0; i < current.length; i++) {
+      if (!(current[i] instanceof TransientMessageListener)) {
+        return false;
+      }
+    }
+    return true;
+  }
+  
+  <T extends Message> void fireMessageReceived(T message) {
+    completePendingResponse(message);
+    fireMessageReceived(Message.class, message);
+    if (message.getClass() != Message.class) {
+      fireMessageReceived(message.getClass(), message);
+    }
+  }
+
+  private void completePendingResponse(Message message) {
+    Queue<CompletableFuture<Message>> pending = pendingResponses.get(message.getClass());
+    if (pending != null) {
+      CompletableFuture<Message> future;
+      while ((future = pending.poll()) != null) {
+        if (future.complete(message)) {
+          break;
+        }
+      }
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private void fireMessageReceived(Class<? extends Message> klass, Message message) {
+    ListenerList<MessageListener<?>> classListeners = this.listeners.get(klass);
+    if (classListeners != null) {
+      MessageListener<Message>[] current = (MessageListener<Message>[]) classListeners.get();
+      Metrics metrics = anki != null ? anki.getMetrics() : null;
+      if (metrics != null && metrics.isEnabled()) {
+        for (int i = 0; i < current.length; i++) {
+          long start = System.nanoTime();
+          current[i].messageReceived(message);
+          metrics.listenerInvoked(System.nanoTime() - start);
+        }
+        return;
+      }
+      for (int i = 0; i < current.length; i++) {
+        current[i].messageReceived(message);
+      }
+    }
+  }
+  
+  public Vehicle(AnkiConnector anki, String address, String manufacturerData, String localName) {
+    this.anki = anki;
+    this.address = address;
+    this.advertisement = new AdvertisementData(manufacturerData, localName);
+    
+    this.listeners = new ConcurrentHashMap<>();
+    this.pendingResponses = new ConcurrentHashMap<>();
+  }
+
+  public String getColor() {
+    return advertisement.getModel().getColor();
+  }
+  
+  @Override
+  public int hashCode() {
+	return address.hashCode();
+  }
+  
+  @Override
+  public boolean equals(Object obj) {
+    if(obj instanceof Vehicle){
+    	return ((Vehicle) obj).getAddress().equals(this.getAddress());
+    }
+    return false;
+  }
+}
@@ -0,0 +1,161 @@
+package de.adesso.anki;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Turns the gateway's SCAN notifications into discovered vehicles.
+ *
+ * Advertisements are parsed once per address and kept in a least recently used cache, so
+ * repeated advertisements of the same vehicle reuse its Vehicle and AdvertisementData. Every
+ * running scan reports each address to its listener only once.
+ */
+class VehicleDiscovery implements NotificationListener {
+  private static final int CACHE_SIZE = 256;
+
+  private final AnkiConnector anki;
+  private final Map<String, Advertisement> cache;
+  private final ListenerList<Scan> scans;
+
+  VehicleDiscovery(AnkiConnector anki) {
+    this.anki = anki;
+    this.cache = new LinkedHashMap<String, Advertisement>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Advertisement> eldest) {
+        return size() > CACHE_SIZE;
+      }
+    };
+    this.scans = new ListenerList<>(new Scan[0]);
+  }
+
+  /**
+   * Registers a scan that ends with the gateway's next SCAN;COMPLETED notification,
+   * or keeps running until {@link #stop()} if it is continuous.
+   */
+  CompletableFuture<Void> start(DiscoveryListener listener, boolean continuous) {
+    Scan scan = new Scan(listener, continuous);
+    scans.add(scan);
+    scan.completion.whenComplete((result, error) -> scans.remove(scan));
+    return scan.completion;
+  }
+
+  /**
+   * Removes the scan with the given completion, e.g. after it timed out.
+   *
+   * @return whether no other scan is running, so that the gateway's scan can be stopped
+   */
+  boolean cancel(CompletableFuture<Void> completion) {
+    for (Scan scan : scans.get()) {
+      if (scan.completion == completion) {
+        scans.remove(scan);
+      }
+    }
+    return scans.isEmpty();
+  }
+
+  /**
+   * Completes all continuous scans.
+   *
+   * @return whether there was a continuous scan to stop
+   */
+  boolean stop() {
+    boolean stopped = false;
+    for (Scan scan : scans.get()) {
+      if (scan.continuous) {
+        stopped |= scan.completion.complete(null);
+      }
+    }
+    return stopped;
+  }
+
+  boolean isContinuous() {
+    for (Scan scan : scans.get()) {
+      if (scan.continuous) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public void onReceive(String line) {
+    if (!line.startsWith("SCAN;")) {
+      return;
+    }
+
+    if (line.equals("SCAN;COMPLETED")) {
+      for (Scan scan : scans.get()) {
+        if (!scan.continuous) {
+          scan.completion.complete(null);
+        }
+      }
+      if (isContinuous()) {
+        // the gateway ended its scan window, but we are still listening
+        anki.resumeDiscovery();
+      }
+    }
+    else if (line.equals("SCAN;ERROR")) {
+      for (Scan scan : scans.get()) {
+        scan.completion.completeExceptionally(new RuntimeException("scan failed"));
+      }
+    }
+    else {
+      int addressEnd = line.indexOf(';', 5);
+      int dataEnd = line.indexOf(';', addressEnd + 1);
+      if (addressEnd < 0 || dataEnd < 0) {
+        return;
+      }
+
+      String address = line.substring(5, addressEnd);
+      Vehicle vehicle = lookup(address, line.substring(addressEnd + 1, dataEnd), line.substring(dataEnd + 1));
+      for (Scan scan : scans.get()) {
+        if (scan.seen.add(address)) {
+          scan.listener.vehicleDiscovered(vehicle);
+        }
+      }
+    }
+  }
+
+  private Vehicle lookup(String address, String manufacturerData, String localName) {
+    synchronized (cache) {
+      Advertisement advertisement = cache.get(address);
+      if (advertisement == null) {
+        advertisement = new Advertisement(new Vehicle(anki, address, manufacturerData, localName));
+        cache.put(address, advertisement);
+      }
+      else if (!advertisement.manufacturerData.equals(manufacturerData) || !advertisement.localName.equals(localName)) {
+        advertisement.vehicle.setAdvertisement(new AdvertisementData(manufacturerData, localName));
+      }
+      advertisement.manufacturerData = manufacturerData;
+      advertisement.localName = localName;
+      return advertisement.vehicle;
+    }
+  }
+
+  private static class Advertisement {
+    final Vehicle vehicle;
+    String manufacturerData;
+    String localName;
+
+    Advertisement(Vehicle vehicle) {
+      this.vehicle = vehicle;
+    }
+  }
+
+  private static class Scan {
+    final DiscoveryListener listener;
+    final boolean continuous;
+    final Set<String> seen = new HashSet<>();
+    final CompletableFuture<Void> completion = new CompletableFuture<>();
+
+    Scan(DiscoveryListener listener, boolean continuous) {
+      this.listener = listener;
+      this.continuous = continuous;
+    }
+  }
+}
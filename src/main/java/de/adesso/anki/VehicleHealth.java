@@ -0,0 +1,79 @@
+package de.adesso.anki;
+
+/**
+ * The health of a vehicle as observed by a {@link HealthMonitor}.
+ * Instances are snapshots and do not change.
+ */
+public class VehicleHealth {
+
+  public enum State {
+    /** The vehicle answers pings and knows its position on the track. */
+    CONNECTED,
+    /** The vehicle answers pings, but has lost track of its position, e.g. after falling off. */
+    DELOCALIZED,
+    /** The vehicle has not answered the last pings and is about to be reconnected. */
+    UNRESPONSIVE,
+    /** The vehicle or the gateway socket is being connected again. */
+    RECONNECTING
+  }
+
+  private final State state;
+  private final long roundTripNanos;
+  private final int missedPings;
+  private final long totalMissedPings;
+  private final int reconnects;
+  private final long changed;
+
+  VehicleHealth(State state, long roundTripNanos, int missedPings, long totalMissedPings, int reconnects,
+      long changed) {
+    this.state = state;
+    this.roundTripNanos = roundTripNanos;
+    this.missedPings = missedPings;
+    this.totalMissedPings = totalMissedPings;
+    this.reconnects = reconnects;
+    this.changed = changed;
+  }
+
+  public State getState() {
+    return state;
+  }
+
+  /**
+   * @return the round trip time of the last answered ping in nanoseconds, or -1 if no ping was
+   *         answered yet
+   */
+  public long getRoundTripNanos() {
+    return roundTripNanos;
+  }
+
+  /**
+   * @return the number of pings that were not answered in time since the last answered one
+   */
+  public int getMissedPings() {
+    return missedPings;
+  }
+
+  public long getTotalMissedPings() {
+    return totalMissedPings;
+  }
+
+  /**
+   * @return the number of times the vehicle was connected again
+   */
+  public int getReconnects() {
+    return reconnects;
+  }
+
+  /**
+   * @return the {@link System#nanoTime()} at which the state last changed
+   */
+  public long getStateChanged() {
+    return changed;
+  }
+
+  @Override
+  public String toString() {
+    return state + " (rtt " + (roundTripNanos < 0 ? "-" : roundTripNanos / 1000 + "us")
+        + ", missed " + missedPings + "/" + totalMissedPings + ", reconnects " + reconnects + ")";
+  }
+}
@@ -0,0 +1,32 @@
+package de.adesso.anki;
+
+import de.adesso.anki.messages.Message;
+
+/**
+ * A message together with the vehicle it was received from, as published by a fleet
+ * {@link MessagePublisher}.
+ *
+ * @param <T> message type
+ */
+public class VehicleMessage<T extends Message> {
+  private final Vehicle vehicle;
+  private final T message;
+
+  public VehicleMessage(Vehicle vehicle, T message) {
+    this.vehicle = vehicle;
+    this.message = message;
+  }
+
+  public Vehicle getVehicle() {
+    return vehicle;
+  }
+
+  public T getMessage() {
+    return message;
+  }
+
+  @Override
+  public String toString() {
+    return vehicle.getAddress() + ": " + message;
+  }
+}
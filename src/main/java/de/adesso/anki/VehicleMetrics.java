@@ -0,0 +1,115 @@
+package de.adesso.anki;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import de.adesso.anki.messages.LocalizationPositionUpdateMessage;
+import de.adesso.anki.messages.SetSpeedMessage;
+
+/**
+ * Counters and latency histograms of a single vehicle, collected by {@link Metrics}.
+ */
+public class VehicleMetrics {
+  private final Vehicle vehicle;
+  private final AtomicLongArray received = new AtomicLongArray(256);
+  private final AtomicLongArray sent = new AtomicLongArray(256);
+  private final LatencyHistogram pingRoundTrip = new LatencyHistogram();
+  private final LatencyHistogram speedToPosition = new LatencyHistogram();
+  private final AtomicLong speedSentAt = new AtomicLong();
+
+  VehicleMetrics(Vehicle vehicle) {
+    this.vehicle = vehicle;
+  }
+
+  public Vehicle getVehicle() {
+    return vehicle;
+  }
+
+  /**
+   * @return the number of messages received from the vehicle
+   */
+  public long getMessagesReceived() {
+    return sum(received);
+  }
+
+  /**
+   * @return the number of messages of the given type received from the vehicle
+   */
+  public long getMessagesReceived(int type) {
+    return received.get(type & 0xff);
+  }
+
+  /**
+   * @return the number of messages written to the vehicle
+   */
+  public long getMessagesSent() {
+    return sum(sent);
+  }
+
+  /**
+   * @return the number of messages of the given type written to the vehicle
+   */
+  public long getMessagesSent(int type) {
+    return sent.get(type & 0xff);
+  }
+
+  /**
+   * Returns the time from calling {@link Vehicle#ping()} until the response is received.
+   */
+  public LatencyHistogram getPingRoundTrip() {
+    return pingRoundTrip;
+  }
+
+  /**
+   * Returns the time from writing a speed message until the next position update is received.
+   */
+  public LatencyHistogram getSpeedToPosition() {
+    return speedToPosition;
+  }
+
+  /**
+   * @param fleetSpeedToPosition histogram of all vehicles that a speed latency is also recorded in
+   */
+  void received(int type, long now, LatencyHistogram fleetSpeedToPosition) {
+    received.incrementAndGet(type);
+    if (type == LocalizationPositionUpdateMessage.TYPE) {
+      long sentAt = speedSentAt.get();
+      if (sentAt != 0 && speedSentAt.compareAndSet(sentAt, 0)) {
+        speedToPosition.record(now - sentAt);
+        fleetSpeedToPosition.record(now - sentAt);
+      }
+    }
+  }
+
+  void sent(int type, long now) {
+    sent.incrementAndGet(type);
+    if (type == SetSpeedMessage.TYPE) {
+      // only the first update after a speed change is measured, a newer speed restarts the clock
+      speedSentAt.set(now == 0 ? 1 : now);
+    }
+  }
+
+  void reset() {
+    for (int i = 0; i < 256; i++) {
+      received.set(i, 0);
+      sent.set(i, 0);
+    }
+    pingRoundTrip.reset();
+    speedToPosition.reset();
+    speedSentAt.set(0);
+  }
+
+  static long sum(AtomicLongArray counters) {
+    long sum = 0;
+    for (int i = 0; i < counters.length(); i++) {
+      sum += counters.get(i);
+    }
+    return sum;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s: %d received, %d sent, ping %s, speed to position %s", vehicle.getAddress(),
+        getMessagesReceived(), getMessagesSent(), pingRoundTrip, speedToPosition);
+  }
+}
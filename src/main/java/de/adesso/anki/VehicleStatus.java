@@ -0,0 +1,172 @@
+package de.adesso.anki;
+
+import com.google.common.base.MoreObjects;
+
+/**
+ * The latest known state of a vehicle, as kept by {@link FleetState}.
+ *
+ * Times are System.nanoTime() values of the moment the corresponding message was received,
+ * or 0 if no such message was received yet.
+ */
+public class VehicleStatus {
+  Vehicle vehicle;
+
+  boolean localized;
+  int roadPieceId;
+  int locationId;
+  float offsetFromRoadCenter;
+  int speed;
+  boolean reverse;
+  long positionTime;
+
+  int transitionRoadPieceId;
+  int prevRoadPieceId;
+  int leftWheelDistance;
+  int rightWheelDistance;
+  int transitionCount;
+  long transitionTime;
+
+  int laneChangeId;
+  long offsetTime;
+
+  int batteryLevel;
+  long batteryTime;
+
+  public VehicleStatus() {}
+
+  VehicleStatus(Vehicle vehicle) {
+    this.vehicle = vehicle;
+  }
+
+  void copyFrom(VehicleStatus other) {
+    vehicle = other.vehicle;
+    localized = other.localized;
+    roadPieceId = other.roadPieceId;
+    locationId = other.locationId;
+    offsetFromRoadCenter = other.offsetFromRoadCenter;
+    speed = other.speed;
+    reverse = other.reverse;
+    positionTime = other.positionTime;
+    transitionRoadPieceId = other.transitionRoadPieceId;
+    prevRoadPieceId = other.prevRoadPieceId;
+    leftWheelDistance = other.leftWheelDistance;
+    rightWheelDistance = other.rightWheelDistance;
+    transitionCount = other.transitionCount;
+    transitionTime = other.transitionTime;
+    laneChangeId = other.laneChangeId;
+    offsetTime = other.offsetTime;
+    batteryLevel = other.batteryLevel;
+    batteryTime = other.batteryTime;
+  }
+
+  public Vehicle getVehicle() {
+    return vehicle;
+  }
+
+  /**
+   * @return false if the vehicle reported that it lost its position and has not reported a new one
+   */
+  public boolean isLocalized() {
+    return localized;
+  }
+
+  public int getRoadPieceId() {
+    return roadPieceId;
+  }
+
+  public int getLocationId() {
+    return locationId;
+  }
+
+  /**
+   * @return offset from the last position or lane change update, whichever came last
+   */
+  public float getOffsetFromRoadCenter() {
+    return offsetFromRoadCenter;
+  }
+
+  public int getSpeed() {
+    return speed;
+  }
+
+  public boolean isReverse() {
+    return reverse;
+  }
+
+  public long getPositionTime() {
+    return positionTime;
+  }
+
+  /**
+   * @return roadpiece id reported by the last transition update
+   */
+  public int getTransitionRoadPieceId() {
+    return transitionRoadPieceId;
+  }
+
+  /**
+   * @return id of the roadpiece the vehicle left at the last transition
+   */
+  public int getPrevRoadPieceId() {
+    return prevRoadPieceId;
+  }
+
+  /**
+   * @return distance the left wheel travelled on the previous roadpiece, as reported by the last
+   *         transition update
+   */
+  public int getLeftWheelDistance() {
+    return leftWheelDistance;
+  }
+
+  /**
+   * @return distance the right wheel travelled on the previous roadpiece, as reported by the last
+   *         transition update
+   */
+  public int getRightWheelDistance() {
+    return rightWheelDistance;
+  }
+
+  /**
+   * @return number of transitions between roadpieces since the vehicle was tracked
+   */
+  public int getTransitionCount() {
+    return transitionCount;
+  }
+
+  public long getTransitionTime() {
+    return transitionTime;
+  }
+
+  public int getLaneChangeId() {
+    return laneChangeId;
+  }
+
+  public long getOffsetTime() {
+    return offsetTime;
+  }
+
+  /**
+   * @return battery level in mV
+   */
+  public int getBatteryLevel() {
+    return batteryLevel;
+  }
+
+  public long getBatteryTime() {
+    return batteryTime;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("vehicle", vehicle)
+        .add("localized", localized)
+        .add("roadPieceId", roadPieceId)
+        .add("locationId", locationId)
+        .add("offset", offsetFromRoadCenter)
+        .add("speed", speed)
+        .add("battery", batteryLevel)
+        .toString();
+  }
+}
@@ -1,112 +1,201 @@
-package de.adesso.anki.messages;
-
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.util.Set;
-
-import javax.xml.bind.DatatypeConverter;
-
-import org.reflections.Reflections;
-
-import com.google.common.base.MoreObjects;
-
-/**
- * Represents a Message following the Anki Communication Protocol that can be sent / received via
- * the Bluetooth LE connection.
- * 
- * This class is subtyped for each currently documented message type.
- * Unknown message types are represented by their type identifier and their binary payload.
- * 
- * @author Yannick Eckey <yannick.eckey@adesso.de>
- */
-public class Message {
-  private final static Reflections reflections = new Reflections("de.adesso.anki.messages");
-
-  protected int type;
-  private byte[] payload;
-
-  protected Message() {}
-
-  protected Message(int type) {
-    this.type = type;
-  }
-
-  public Message(int type, byte[] payload) {
-    this.type = type;
-    this.payload = payload;
-  }
-
-  public static Message parse(String hexMessage) {
-    byte[] data = DatatypeConverter.parseHexBinary(hexMessage);
-    ByteBuffer buffer = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
-
-    int size = Byte.toUnsignedInt(buffer.get());
-    int type = Byte.toUnsignedInt(buffer.get());
-
-    Message m = Message.createByType(type);
-
-    m.payload = new byte[buffer.remaining()];
-    buffer.get(m.payload).position(2);
-    m.parsePayload(buffer);
-
-    return m;
-  }
-
-  private static Message createByType(int type) {
-    Set<Class<? extends Message>> messages = reflections.getSubTypesOf(Message.class);
-
-    for (Class<? extends Message> message : messages) {
-      try {
-        if (message.getField("TYPE").getInt(null) == type) {
-          return message.newInstance();
-        }
-      } catch (NoSuchFieldException | IllegalAccessException | InstantiationException e) {
-        // just skip the Message subclass if there is no TYPE constant
-        // or it cannot be instantiated
-      }
-    }
-
-    return new Message(type);
-  }
-
-  public String toHex() {
-    ByteBuffer buffer = ByteBuffer.allocate(20).order(ByteOrder.LITTLE_ENDIAN);
-    buffer.position(2);
-    preparePayload(buffer);
-    buffer.flip();
-
-    buffer.put((byte) (buffer.remaining() - 1));
-    buffer.put((byte) type);
-
-    byte[] data = new byte[buffer.limit()];
-    buffer.rewind();
-    buffer.get(data);
-
-    return DatatypeConverter.printHexBinary(data);
-  }
-
-  protected void preparePayload(ByteBuffer buffer) {
-    if (this.getClass() == Message.class) {
-      buffer.put(payload);
-    }
-  }
-
-  @Override
-  public String toString() {
-    return MoreObjects.toStringHelper(this).add("type", Integer.toHexString(this.type))
-        .add("payload", payload == null ? null : DatatypeConverter.printHexBinary(payload))
-        .toString();
-  }
-
-  protected void parsePayload(ByteBuffer buffer) {
-    this.payload = new byte[buffer.remaining()];
-    buffer.get(this.payload);
-  }
-
-  public static void main(String[] args) {
-    Message m = new Message(0x18, new byte[0]);
-    Message m2 = Message.parse("10272114b5f386c2f401470000fa00f401");
-    System.out.println(m2.toHex());
-    Message.parse("122900007b1495c200ffff0000000000002221");
-  }
-}
+package de.adesso.anki.messages;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+
+import javax.xml.bind.DatatypeConverter;
+
+import com.google.common.base.MoreObjects;
+
+/**
+ * Represents a Message following the Anki Communication Protocol that can be sent / received via
+ * the Bluetooth LE connection.
+ * 
+ * This class is subtyped for each currently documented message type.
+ * Unknown message types are represented by their type identifier and their binary payload.
+ * 
+ * Message subclasses are looked up by their type identifier in a table that is filled once when
+ * this class is initialized. Custom subclasses can be added with {@link #register(int, Supplier)}.
+ * 
+ * @author Yannick Eckey <yannick.eckey@adesso.de>
+ */
+public class Message {
+  /**
+   * Maximum size of a raw message in bytes, including the size and type bytes.
+   */
+  public static final int MAX_SIZE = 20;
+
+  private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+  private final static AtomicReferenceArray<Supplier<? extends Message>> factories = new AtomicReferenceArray<>(256);
+
+  static {
+    register(PingRequestMessage.TYPE, PingRequestMessage::new);
+    register(PingResponseMessage.TYPE, PingResponseMessage::new);
+    register(VersionRequestMessage.TYPE, VersionRequestMessage::new);
+    register(VersionResponseMessage.TYPE, VersionResponseMessage::new);
+    register(BatteryLevelRequestMessage.TYPE, BatteryLevelRequestMessage::new);
+    register(BatteryLevelResponseMessage.TYPE, BatteryLevelResponseMessage::new);
+    register(SetLightsMessage.TYPE, SetLightsMessage::new);
+    register(SetSpeedMessage.TYPE, SetSpeedMessage::new);
+    register(ChangeLaneMessage.TYPE, ChangeLaneMessage::new);
+    register(CancelLaneChangeMessage.TYPE, CancelLaneChangeMessage::new);
+    register(LocalizationPositionUpdateMessage.TYPE, LocalizationPositionUpdateMessage::new);
+    register(LocalizationTransitionUpdateMessage.TYPE, LocalizationTransitionUpdateMessage::new);
+    register(LocalizationIntersectionUpdateMessage.TYPE, LocalizationIntersectionUpdateMessage::new);
+    register(VehicleDelocalizedMessage.TYPE, VehicleDelocalizedMessage::new);
+    register(SetOffsetFromRoadCenterMessage.TYPE, SetOffsetFromRoadCenterMessage::new);
+    register(OffsetFromRoadCenterUpdateMessage.TYPE, OffsetFromRoadCenterUpdateMessage::new);
+    register(TurnMessage.TYPE, TurnMessage::new);
+    register(LightsPatternMessage.TYPE, LightsPatternMessage::new);
+    register(VehicleInfoMessage.TYPE, VehicleInfoMessage::new);
+    register(SetConfigParamsMessage.TYPE, SetConfigParamsMessage::new);
+    register(SdkModeMessage.TYPE, SdkModeMessage::new);
+  }
+
+  protected int type;
+  private byte[] payload;
+
+  protected Message() {}
+
+  protected Message(int type) {
+    this.type = type;
+  }
+
+  public Message(int type, byte[] payload) {
+    this.type = type;
+    this.payload = payload;
+  }
+
+  public int getType() {
+    return type;
+  }
+
+  public static Message parse(String hexMessage) {
+    byte[] data = DatatypeConverter.parseHexBinary(hexMessage);
+    return parse(ByteBuffer.wrap(data));
+  }
+
+  /**
+   * Parses a raw message from the given buffer.
+   * The buffer is read from its current position up to its limit.
+   * Known message types read their fields directly from the buffer, only
+   * messages of unknown types copy their payload.
+   * 
+   * @param buffer raw message, positioned at the message size byte
+   * @return the parsed message
+   */
+  public static Message parse(ByteBuffer buffer) {
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+    int size = Byte.toUnsignedInt(buffer.get());
+    int type = Byte.toUnsignedInt(buffer.get());
+
+    Message m = Message.createByType(type);
+    m.parsePayload(buffer);
+
+    return m;
+  }
+
+  /**
+   * Parses a raw message from the given buffer into an existing message of the same type,
+   * overwriting all of its fields instead of allocating a new message.
+   * 
+   * @param buffer raw message, positioned at the message size byte
+   * @param message message to reuse
+   * @return the given message
+   * @throws IllegalArgumentException if the buffer holds a message of another type
+   */
+  public static <T extends Message> T parse(ByteBuffer buffer, T message) {
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+    int type = Byte.toUnsignedInt(buffer.get(buffer.position() + 1));
+    if (type != message.type) {
+      throw new IllegalArgumentException("message type " + Integer.toHexString(type) + " does not match "
+          + message.getClass().getSimpleName());
+    }
+
+    buffer.position(buffer.position() + 2);
+    message.parsePayload(buffer);
+    return message;
+  }
+
+  /**
+   * Registers a factory for the given message type, replacing any previously registered one.
+   * Messages of this type will be created by the factory when they are parsed.
+   * A factory registered while vehicles are connected is used for all messages parsed afterwards.
+   * 
+   * @param type message type identifier (0x00 - 0xff)
+   * @param factory creates an empty instance of the message subclass
+   */
+  public static void register(int type, Supplier<? extends Message> factory) {
+    if (type < 0 || type >= factories.length()) {
+      throw new IllegalArgumentException("invalid message type: " + type);
+    }
+    factories.set(type, factory);
+  }
+
+  private static Message createByType(int type) {
+    Supplier<? extends Message> factory = factories.get(type);
+    return factory != null ? factory.get() : new Message(type);
+  }
+
+  /**
+   * Returns the raw message as a hex string. Use {@link #writeTo(ByteBuffer)}
+   * to encode messages without allocating.
+   */
+  public String toHex() {
+    ByteBuffer buffer = ByteBuffer.allocate(MAX_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    writeTo(buffer);
+
+    char[] hex = new char[buffer.position() * 2];
+    for (int i = 0; i < buffer.position(); i++) {
+      hex[2 * i] = HEX_DIGITS[(buffer.get(i) >> 4) & 0xf];
+      hex[2 * i + 1] = HEX_DIGITS[buffer.get(i) & 0xf];
+    }
+    return new String(hex);
+  }
+
+  /**
+   * Writes the raw message (size, type and payload) to the given buffer,
+   * starting at its current position.
+   * 
+   * @param buffer little endian buffer to write to
+   */
+  public void writeTo(ByteBuffer buffer) {
+    int start = buffer.position();
+    buffer.position(start + 2);
+    preparePayload(buffer);
+
+    buffer.put(start, (byte) (buffer.position() - start - 1));
+    buffer.put(start + 1, (byte) type);
+  }
+
+  protected void preparePayload(ByteBuffer buffer) {
+    if (this.getClass() == Message.class) {
+      buffer.put(payload);
+    }
+  }
+
+  @Override
+  public String toString() {
+    String hex = payload != null ? DatatypeConverter.printHexBinary(payload) : toHex().substring(4);
+    return MoreObjects.toStringHelper(this).add("type", Integer.toHexString(this.type))
+        .add("payload", hex)
+        .toString();
+  }
+
+  protected void parsePayload(ByteBuffer buffer) {
+    this.payload = new byte[buffer.remaining()];
+    buffer.get(this.payload);
+  }
+
+  public static void main(String[] args) {
+    Message m = new Message(0x18, new byte[0]);
+    Message m2 = Message.parse("10272114b5f386c2f401470000fa00f401");
+    System.out.println(m2.toHex());
+    Message.parse("122900007b1495c200ffff0000000000002221");
+  }
+}
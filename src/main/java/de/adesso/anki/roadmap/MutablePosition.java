@@ -0,0 +1,83 @@
+package de.adesso.anki.roadmap;
+
+/**
+ * A position that is transformed in place, to place many pieces without creating intermediate
+ * positions. The operations match those of {@link Position}.
+ */
+public class MutablePosition {
+  private double x;
+  private double y;
+  private double angle;
+
+  public MutablePosition() { }
+
+  public MutablePosition(Position position) {
+    set(position);
+  }
+
+  public MutablePosition set(Position position) {
+    return set(position.getX(), position.getY(), position.getAngle());
+  }
+
+  public MutablePosition set(double x, double y, double angle) {
+    this.x = x;
+    this.y = y;
+    this.angle = Position.normalize(angle);
+    return this;
+  }
+
+  /**
+   * Moves this position to where the given local position is, seen from this one.
+   *
+   * @see Position#transform(Position)
+   */
+  public MutablePosition transform(Position other) {
+    double cos = Position.cos(angle);
+    double sin = Position.sin(angle);
+    double newX = cos * other.getX() + sin * other.getY() + x;
+    double newY = -sin * other.getX() + cos * other.getY() + y;
+    return set(newX, newY, other.getAngle() + angle);
+  }
+
+  /**
+   * Moves this position to the origin of a piece that has the given local position here.
+   *
+   * @see Position#invTransform(Position)
+   */
+  public MutablePosition invTransform(Position other) {
+    double newAngle = angle - other.getAngle();
+    double cos = Position.cos(newAngle);
+    double sin = Position.sin(newAngle);
+    double newX = x - (cos * other.getX() + sin * other.getY());
+    double newY = y - (-sin * other.getX() + cos * other.getY());
+    return set(newX, newY, newAngle);
+  }
+
+  public double distance(double x, double y) {
+    double dx = this.x - x;
+    double dy = this.y - y;
+
+    return Math.sqrt(dx*dx + dy*dy);
+  }
+
+  public double distance(MutablePosition other) {
+    return distance(other.x, other.y);
+  }
+
+  public Position toPosition() {
+    return Position.at(x, y, angle);
+  }
+
+  public double getX() {
+    return x;
+  }
+
+  public double getY() {
+    return y;
+  }
+
+  public double getAngle() {
+    return angle;
+  }
+
+}
@@ -1,6 +1,9 @@
 package de.adesso.anki.roadmap;
 
 public class Position {
+  private static final double[] QUARTER_COS = { 1, 0, -1, 0 };
+  private static final double[] QUARTER_SIN = { 0, 1, 0, -1 };
+  
   private double x;
   private double y;
   private double angle;
@@ -8,7 +11,7 @@ public class Position {
   private Position(double x, double y, double angle) {
     this.x = x;
     this.y = y;
-    this.angle = (angle % 360 + 360) % 360;
+    this.angle = normalize(angle);
   }
   
   public static Position at(double x, double y) {
@@ -36,8 +39,10 @@ public class Position {
   }
   
   public Position rotate(double angle) {
-    double newX = Math.cos(Math.toRadians(angle)) * this.x + Math.sin(Math.toRadians(angle)) * this.y;
-    double newY = -Math.sin(Math.toRadians(angle)) * this.x + Math.cos(Math.toRadians(angle)) * this.y;
+    double cos = cos(angle);
+    double sin = sin(angle);
+    double newX = cos * this.x + sin * this.y;
+    double newY = -sin * this.x + cos * this.y;
     double newAngle = this.angle + angle;
     
     return new Position(newX, newY, newAngle);
@@ -47,18 +52,12 @@ public class Position {
     return this.rotate(-angle);
   }
   
-  public Position transform(Position other) {    
-    return other.rotate(this.angle)
-                .translate(this.x, this.y);
+  public Position transform(Position other) {
+    return new MutablePosition(this).transform(other).toPosition();
   }
   
   public Position invTransform(Position other) {
-    double newAngle = this.angle - other.angle;
-    Position tmp = other.rotate(newAngle);
-    double newX = this.x - tmp.x;
-    double newY = this.y - tmp.y;
-    
-    return new Position(newX, newY, newAngle);
+    return new MutablePosition(this).invTransform(other).toPosition();
   }
   
   public double distance(Position other) {
@@ -68,6 +67,43 @@ public class Position {
     return Math.sqrt(dx*dx + dy*dy);
   }
 
+  static double normalize(double angle) {
+    if (angle >= 0 && angle < 360) {
+      return angle;
+    }
+    if (angle >= 360 && angle < 720) {
+      return angle - 360;
+    }
+    return (angle % 360 + 360) % 360;
+  }
+  
+  /**
+   * Cosine of an angle in degrees, exact for multiples of 90 degrees like the angles of pieces.
+   */
+  static double cos(double angle) {
+    int quarter = quarter(angle);
+    return quarter >= 0 ? QUARTER_COS[quarter] : Math.cos(Math.toRadians(angle));
+  }
+  
+  /**
+   * Sine of an angle in degrees, exact for multiples of 90 degrees like the angles of pieces.
+   */
+  static double sin(double angle) {
+    int quarter = quarter(angle);
+    return quarter >= 0 ? QUARTER_SIN[quarter] : Math.sin(Math.toRadians(angle));
+  }
+  
+  /**
+   * @return 0 to 3 for multiples of 90 degrees, -1 for other angles
+   */
+  private static int quarter(double angle) {
+    double quarters = angle / 90;
+    if (quarters != Math.rint(quarters) || Math.abs(quarters) > Integer.MAX_VALUE) {
+      return -1;
+    }
+    return ((int) quarters % 4 + 4) % 4;
+  }
+
   public double getX() {
     return x;
   }
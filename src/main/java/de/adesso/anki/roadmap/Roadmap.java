@@ -1,32 +1,68 @@
 package de.adesso.anki.roadmap;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 import de.adesso.anki.roadmap.roadpieces.Roadpiece;
 
+/**
+ * A track as a ring of sections in driving order, starting at the anchor.
+ *
+ * Sections are numbered from 0 at the anchor. The numbering and the lookups by number, roadpiece
+ * id and section are indexed in arrays on first use after the roadmap changed, so that they take
+ * constant time and do not allocate. Lookups by roadpiece id need pieces created by
+ * {@link Roadpiece#createFromId(int)}, like those added with {@link #add(int, int, boolean)}.
+ */
 public class Roadmap {
   
   private Section anchor;
   private Section current;
+  private Index index;
   
   public void setAnchor(Section anchor) {
     this.anchor = anchor;
+    this.index = null;
   }
   
   public void addSection(Section section) {
-    if (current == null) {
-      anchor = current = section;
-      anchor.getPiece().setPosition(Position.at(0,0,180));
+    addSections(Collections.singletonList(section));
+  }
+  
+  /**
+   * Adds sections in driving order, placing each piece after the previous one in a single pass.
+   * The roadmap is closed as soon as the exit of a section meets the entry of the anchor.
+   */
+  public void addSections(Iterable<? extends Section> sections) {
+    index = null;
+    MutablePosition exit = new MutablePosition();
+    MutablePosition anchorEntry = new MutablePosition();
+    if (current != null) {
+      exit.set(current.getPiece().getPosition()).transform(current.getExit());
+      anchorEntry.set(anchor.getPiece().getPosition()).transform(anchor.getEntry());
     }
-    else {
-      current.connect(section);
-      current = section;
-
-      Position currentExit = current.getPiece().getPosition().transform(current.getExit());
-      Position anchorEntry = anchor.getPiece().getPosition().transform(anchor.getEntry());
-      if (currentExit.distance(anchorEntry) < 1) {
+    
+    for (Section section : sections) {
+      if (current == null) {
+        anchor = current = section;
+        anchor.getPiece().setPosition(Position.at(0,0,180));
+        anchorEntry.set(anchor.getPiece().getPosition()).transform(anchor.getEntry());
+        exit.set(anchor.getPiece().getPosition());
+      }
+      else {
+        current.setNext(section);
+        section.setPrev(current);
+        current = section;
+        
+        exit.invTransform(current.getEntry());
+        current.getPiece().setPosition(exit.toPosition());
+      }
+      
+      exit.transform(current.getExit());
+      if (current != anchor && exit.distance(anchorEntry) < 1) {
         current.connect(anchor);
       }
     }
@@ -40,24 +76,237 @@ public class Roadmap {
   }
   
   public List<Roadpiece> toList() {
-    if (anchor == null) return Collections.emptyList();
+    return index().pieceList;
+  }
+  
+  public boolean isComplete() {
+    return anchor != null && anchor.getPrev() != null;
+  }
+  
+  /**
+   * @return number of sections from the anchor to the last added one
+   */
+  public int size() {
+    return index().sections.length;
+  }
+  
+  public Section getSection(int ordinal) {
+    return index().sections[ordinal];
+  }
+  
+  public Roadpiece getPiece(int ordinal) {
+    return index().sections[ordinal].getPiece();
+  }
+  
+  /**
+   * @return number of the section a vehicle reporting the given localization is on,
+   *         or -1 if the roadpiece is not part of this roadmap. If a roadpiece id occurs
+   *         more than once, the first section in driving order is returned.
+   */
+  public int indexOf(int roadpieceId, int locationId) {
+    Index index = index();
+    if (roadpieceId < 0 || roadpieceId >= index.firstByPieceId.length) {
+      return -1;
+    }
+    int ordinal = index.firstByPieceId[roadpieceId];
+    if (ordinal >= 0 && index.nextByPieceId[ordinal] >= 0) {
+      int sectionIndex = index.sections[ordinal].getPiece().getSectionIndex(locationId);
+      for (int i = ordinal; i >= 0; i = index.nextByPieceId[i]) {
+        if (index.sectionIndexes[i] == sectionIndex) {
+          return i;
+        }
+      }
+    }
+    return ordinal;
+  }
+  
+  /**
+   * @param section a section of this roadmap in either direction, including reversed sections
+   *        created by {@link Section#reverse()}
+   * @return number of the section, or -1 if it is not part of this roadmap
+   */
+  public int indexOf(Section section) {
+    Section original = section;
+    while (original instanceof ReverseSection) {
+      original = original.reverse();
+    }
+    Roadpiece piece = original.getPiece();
+    int[] ordinals = piece != null ? index().ordinals.get(piece) : null;
+    if (ordinals == null) {
+      return -1;
+    }
+    int sectionIndex = piece.getSections().indexOf(original);
+    return sectionIndex >= 0 && sectionIndex < ordinals.length ? ordinals[sectionIndex] : -1;
+  }
+  
+  /**
+   * @return distance in mm along the center line from the anchor's entry to the section's entry
+   */
+  public double getDistance(int ordinal) {
+    return index().distances[ordinal];
+  }
+  
+  /**
+   * @return length of the section's center line in mm
+   */
+  public double getLength(int ordinal) {
+    Index index = index();
+    return index.distances[ordinal + 1] - index.distances[ordinal];
+  }
+  
+  /**
+   * @return length of the center line of all sections in mm
+   */
+  public double getLength() {
+    Index index = index();
+    return index.distances[index.sections.length];
+  }
+  
+  /**
+   * Identifies the layout of a complete roadmap, no matter which section is the anchor and in
+   * which direction the track was scanned. Pieces are identified by their roadpiece ids, so the
+   * fingerprint needs pieces created by {@link Roadpiece#createFromId(int)}.
+   *
+   * @return a 64 bit hash of the sections in canonical order
+   */
+  public long getFingerprint() {
+    Index index = index();
+    int size = index.sections.length;
+    int[] forward = new int[size];
+    int[] backward = new int[size];
+    for (int i = 0; i < size; i++) {
+      int key = (index.sections[i].getPiece().getId() << 2) | (index.sectionIndexes[i] << 1);
+      boolean reversed = index.sections[i] instanceof ReverseSection;
+      forward[i] = key | (reversed ? 1 : 0);
+      backward[size - 1 - i] = key | (reversed ? 0 : 1);
+    }
     
-    List<Roadpiece> list = new ArrayList<>();
-    list.add(anchor.getPiece());
+    int[] canonical = rotateToMinimum(forward);
+    int[] other = rotateToMinimum(backward);
+    for (int i = 0; i < size; i++) {
+      if (other[i] != canonical[i]) {
+        if (other[i] < canonical[i]) {
+          canonical = other;
+        }
+        break;
+      }
+    }
     
-    Section iterator = anchor.getNext();
-    while (iterator != null && iterator != anchor) {
-      if (iterator.getPiece() != null) {
-        list.add(iterator.getPiece());
+    long hash = 0xcbf29ce484222325L;
+    for (int key : canonical) {
+      hash = (hash ^ key) * 0x100000001b3L;
+    }
+    return hash;
+  }
+  
+  /**
+   * @return the lexicographically smallest rotation of the sequence (Booth's algorithm)
+   */
+  private static int[] rotateToMinimum(int[] sequence) {
+    int n = sequence.length;
+    int[] failure = new int[2 * n];
+    Arrays.fill(failure, -1);
+    int start = 0;
+    for (int j = 1; j < 2 * n; j++) {
+      int value = sequence[j % n];
+      int i = failure[j - start - 1];
+      while (i != -1 && value != sequence[(start + i + 1) % n]) {
+        if (value < sequence[(start + i + 1) % n]) {
+          start = j - i - 1;
+        }
+        i = failure[i];
+      }
+      if (value != sequence[(start + i + 1) % n]) {
+        if (value < sequence[start % n]) {
+          start = j;
+        }
+        failure[j - start] = -1;
+      }
+      else {
+        failure[j - start] = i + 1;
       }
-      iterator = iterator.getNext();
     }
     
-    return Collections.unmodifiableList(list);
+    int[] rotated = new int[n];
+    for (int i = 0; i < n; i++) {
+      rotated[i] = sequence[(start + i) % n];
+    }
+    return rotated;
   }
   
-  public boolean isComplete() {
-    return anchor != null && anchor.getPrev() != null;
+  private Index index() {
+    Index index = this.index;
+    if (index == null) {
+      this.index = index = new Index(anchor);
+    }
+    return index;
+  }
+  
+  private static class Index {
+    final Section[] sections;
+    final List<Roadpiece> pieceList;
+    final double[] distances;
+    final int[] sectionIndexes;
+    final int[] firstByPieceId;
+    final int[] nextByPieceId;
+    final Map<Roadpiece, int[]> ordinals;
+    
+    Index(Section anchor) {
+      List<Section> ring = new ArrayList<>();
+      Section iterator = anchor;
+      while (iterator != null) {
+        if (iterator.getPiece() != null) {
+          ring.add(iterator);
+        }
+        iterator = iterator.getNext();
+        if (iterator == anchor) {
+          break;
+        }
+      }
+      
+      int size = ring.size();
+      sections = ring.toArray(new Section[size]);
+      distances = new double[size + 1];
+      sectionIndexes = new int[size];
+      firstByPieceId = new int[256];
+      nextByPieceId = new int[size];
+      ordinals = new IdentityHashMap<>();
+      Arrays.fill(firstByPieceId, -1);
+      Arrays.fill(nextByPieceId, -1);
+      
+      List<Roadpiece> pieces = new ArrayList<>(size);
+      int[] lastByPieceId = new int[firstByPieceId.length];
+      for (int i = 0; i < size; i++) {
+        Section section = sections[i];
+        Roadpiece piece = section.getPiece();
+        pieces.add(piece);
+        distances[i + 1] = distances[i] + section.getLength();
+        
+        Section original = section instanceof ReverseSection ? section.reverse() : section;
+        sectionIndexes[i] = piece.getSections().indexOf(original);
+        if (sectionIndexes[i] >= 0) {
+          int[] bySectionIndex = ordinals.get(piece);
+          if (bySectionIndex == null) {
+            bySectionIndex = new int[piece.getSections().size()];
+            Arrays.fill(bySectionIndex, -1);
+            ordinals.put(piece, bySectionIndex);
+          }
+          bySectionIndex[sectionIndexes[i]] = i;
+        }
+        
+        int id = piece.getId();
+        if (id > 0 && id < firstByPieceId.length) {
+          if (firstByPieceId[id] < 0) {
+            firstByPieceId[id] = i;
+          }
+          else {
+            nextByPieceId[lastByPieceId[id]] = i;
+          }
+          lastByPieceId[id] = i;
+        }
+      }
+      pieceList = Collections.unmodifiableList(pieces);
+    }
   }
   
 }
@@ -0,0 +1,144 @@
+package de.adesso.anki.roadmap;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Complete roadmaps by fingerprint, so that a known track layout does not have to be scanned
+ * again. A layout is recognized from a few sections a vehicle drove over in a row.
+ *
+ * A cache can be kept in a directory, with one file per roadmap in the binary
+ * {@link RoadmapFormat}, named after the fingerprint.
+ */
+public class RoadmapCache {
+  private static final String EXTENSION = ".roadmap";
+
+  private final Map<Long, Roadmap> roadmaps = new ConcurrentHashMap<>();
+  private final Path directory;
+
+  /**
+   * Creates a cache in memory.
+   */
+  public RoadmapCache() {
+    this.directory = null;
+  }
+
+  /**
+   * Creates a cache in the given directory and loads the roadmaps stored there.
+   * Files that cannot be read are skipped.
+   */
+  public RoadmapCache(Path directory) throws IOException {
+    this.directory = directory;
+    Files.createDirectories(directory);
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + EXTENSION)) {
+      for (Path file : files) {
+        try (InputStream in = Files.newInputStream(file)) {
+          Roadmap roadmap = RoadmapFormat.read(in);
+          roadmaps.put(roadmap.getFingerprint(), roadmap);
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      }
+    }
+  }
+
+  /**
+   * @throws IllegalArgumentException if the roadmap is not complete
+   */
+  public void put(Roadmap roadmap) {
+    if (!roadmap.isComplete()) {
+      throw new IllegalArgumentException("roadmap is not complete");
+    }
+    long fingerprint = roadmap.getFingerprint();
+    if (roadmaps.put(fingerprint, roadmap) == null && directory != null) {
+      try {
+        save(roadmap, directory.resolve(Long.toHexString(fingerprint) + EXTENSION));
+      } catch (IOException e) {
+        // the roadmap is still cached in memory
+        e.printStackTrace();
+      }
+    }
+  }
+
+  private static void save(Roadmap roadmap, Path file) throws IOException {
+    // write to a temporary file first, so that no partial roadmap is ever loaded
+    Path temporary = Files.createTempFile(file.getParent(), "roadmap", ".tmp");
+    try {
+      try (OutputStream out = Files.newOutputStream(temporary)) {
+        RoadmapFormat.write(roadmap, out);
+      }
+      Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+  }
+
+  /**
+   * @return the roadmap with the given fingerprint, or null if there is none
+   */
+  public Roadmap get(long fingerprint) {
+    return roadmaps.get(fingerprint);
+  }
+
+  public Collection<Roadmap> getRoadmaps() {
+    return Collections.unmodifiableCollection(new ArrayList<>(roadmaps.values()));
+  }
+
+  /**
+   * Finds the layout a vehicle is driving on from the sections it drove over in a row,
+   * in either direction.
+   *
+   * @param roadpieceIds roadpiece ids of the sections in the order they were driven
+   * @param locationIds a location id read on each of the sections
+   * @param count number of sections to match
+   * @return the only roadmap that has these sections in a row, or null if none or several do
+   */
+  public Roadmap match(int[] roadpieceIds, int[] locationIds, int count) {
+    Roadmap match = null;
+    for (Roadmap roadmap : roadmaps.values()) {
+      if (follows(roadmap, roadpieceIds, locationIds, count, 1)
+          || follows(roadmap, roadpieceIds, locationIds, count, -1)) {
+        if (match != null) {
+          return null;
+        }
+        match = roadmap;
+      }
+    }
+    return match;
+  }
+
+  private static boolean follows(Roadmap roadmap, int[] roadpieceIds, int[] locationIds, int count, int step) {
+    int size = roadmap.size();
+    if (count == 0 || count > size) {
+      return false;
+    }
+    int first = roadmap.indexOf(roadpieceIds[0], locationIds[0]);
+    if (first < 0) {
+      return false;
+    }
+    for (int i = 1; i < count; i++) {
+      int expected = ((first + step * i) % size + size) % size;
+      if (roadmap.indexOf(roadpieceIds[i], locationIds[i]) != expected) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Removes all roadmaps from memory, stored files are kept.
+   */
+  public void clear() {
+    roadmaps.clear();
+  }
+}
@@ -0,0 +1,179 @@
+package de.adesso.anki.roadmap;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import de.adesso.anki.roadmap.roadpieces.Roadpiece;
+
+/**
+ * Stores roadmaps in a compact binary format or as JSON.
+ *
+ * The binary format is [magic "ANKR"][version: 16 bit][sections: 32 bit][fingerprint: 64 bit],
+ * followed by one record per section in driving order: [roadpiece id: 8 bit][flags: 8 bit]
+ * [x: float][y: float][angle: float], big endian. Flag 1 marks a reversed section, flag 2 the
+ * second section of an intersection. The JSON format has the same fields. Positions are
+ * informational, reading a roadmap places its pieces again, and the fingerprint is checked
+ * against the read sections.
+ */
+public class RoadmapFormat {
+  private static final int MAGIC = 0x414e4b52; // "ANKR"
+  private static final int VERSION = 1;
+
+  private static final int REVERSE = 1;
+  private static final int SECOND_SECTION = 2;
+
+  private static final Pattern SECTION = Pattern.compile("\\{([^{}]*)\\}");
+  private static final Pattern FIELD = Pattern.compile("\"(\\w+)\"\\s*:\\s*(\"[^\"]*\"|[^,}\\s]+)");
+
+  public static void write(Roadmap roadmap, OutputStream out) throws IOException {
+    DataOutputStream data = new DataOutputStream(out);
+    data.writeInt(MAGIC);
+    data.writeShort(VERSION);
+    data.writeInt(roadmap.size());
+    data.writeLong(roadmap.getFingerprint());
+
+    for (int i = 0; i < roadmap.size(); i++) {
+      Section section = roadmap.getSection(i);
+      Position position = section.getPiece().getPosition();
+      data.writeByte(section.getPiece().getId());
+      data.writeByte(flags(section));
+      data.writeFloat((float) position.getX());
+      data.writeFloat((float) position.getY());
+      data.writeFloat((float) position.getAngle());
+    }
+    data.flush();
+  }
+
+  /**
+   * @throws IOException if the data is not a roadmap or does not match its fingerprint
+   */
+  public static Roadmap read(InputStream in) throws IOException {
+    DataInputStream data = new DataInputStream(in);
+    if (data.readInt() != MAGIC) {
+      throw new IOException("not a roadmap");
+    }
+    int version = data.readUnsignedShort();
+    if (version != VERSION) {
+      throw new IOException("unsupported roadmap version: " + version);
+    }
+    int size = data.readInt();
+    long fingerprint = data.readLong();
+    if (size < 0) {
+      throw new IOException("invalid number of sections: " + size);
+    }
+
+    List<Section> sections = new ArrayList<>(Math.min(size, 4096));
+    for (int i = 0; i < size; i++) {
+      int roadpieceId = data.readUnsignedByte();
+      int flags = data.readUnsignedByte();
+      data.readFloat();
+      data.readFloat();
+      data.readFloat();
+      sections.add(section(roadpieceId, flags));
+    }
+    return place(sections, fingerprint);
+  }
+
+  public static String toJson(Roadmap roadmap) {
+    StringBuilder json = new StringBuilder();
+    json.append("{\n");
+    json.append("  \"version\": ").append(VERSION).append(",\n");
+    json.append("  \"fingerprint\": \"").append(Long.toHexString(roadmap.getFingerprint())).append("\",\n");
+    json.append("  \"sections\": [");
+    for (int i = 0; i < roadmap.size(); i++) {
+      Section section = roadmap.getSection(i);
+      Roadpiece piece = section.getPiece();
+      int flags = flags(section);
+      json.append(i == 0 ? "\n" : ",\n");
+      json.append(String.format(Locale.ROOT,
+          "    {\"id\": %d, \"type\": \"%s\", \"section\": %d, \"reverse\": %b, \"x\": %.1f, \"y\": %.1f, \"angle\": %.1f}",
+          piece.getId(), piece.getType(), (flags & SECOND_SECTION) != 0 ? 1 : 0, (flags & REVERSE) != 0,
+          piece.getPosition().getX(), piece.getPosition().getY(), piece.getPosition().getAngle()));
+    }
+    json.append("\n  ]\n}\n");
+    return json.toString();
+  }
+
+  /**
+   * @throws IOException if the JSON is not a roadmap or does not match its fingerprint
+   */
+  public static Roadmap fromJson(String json) throws IOException {
+    int start = json.indexOf("\"sections\"");
+    if (start < 0) {
+      throw new IOException("not a roadmap");
+    }
+    Map<String, String> header = fields(json.substring(0, start));
+    String version = header.get("version");
+    if (!String.valueOf(VERSION).equals(version)) {
+      throw new IOException("unsupported roadmap version: " + version);
+    }
+
+    try {
+      long fingerprint = Long.parseUnsignedLong(unquote(header.get("fingerprint")), 16);
+      List<Section> sections = new ArrayList<>();
+      Matcher matcher = SECTION.matcher(json);
+      matcher.region(start, json.length());
+      while (matcher.find()) {
+        Map<String, String> fields = fields(matcher.group(1));
+        int flags = (Boolean.parseBoolean(fields.get("reverse")) ? REVERSE : 0)
+            | ("1".equals(fields.get("section")) ? SECOND_SECTION : 0);
+        sections.add(section(Integer.parseInt(fields.get("id")), flags));
+      }
+      return place(sections, fingerprint);
+    } catch (NumberFormatException | NullPointerException e) {
+      throw new IOException("malformed roadmap", e);
+    }
+  }
+
+  private static int flags(Section section) {
+    Section original = section instanceof ReverseSection ? section.reverse() : section;
+    int index = section.getPiece().getSections().indexOf(original);
+    return (section instanceof ReverseSection ? REVERSE : 0) | (index == 1 ? SECOND_SECTION : 0);
+  }
+
+  private static Section section(int roadpieceId, int flags) throws IOException {
+    Roadpiece piece = Roadpiece.createFromId(roadpieceId);
+    if (piece == null) {
+      throw new IOException("unknown roadpiece id: " + roadpieceId);
+    }
+    List<Section> sections = piece.getSections();
+    int index = (flags & SECOND_SECTION) != 0 ? 1 : 0;
+    if (index >= sections.size()) {
+      throw new IOException("roadpiece " + roadpieceId + " has no section " + index);
+    }
+    Section section = sections.get(index);
+    return (flags & REVERSE) != 0 ? section.reverse() : section;
+  }
+
+  private static Roadmap place(List<Section> sections, long fingerprint) throws IOException {
+    Roadmap roadmap = new Roadmap();
+    roadmap.addSections(sections);
+    if (roadmap.getFingerprint() != fingerprint) {
+      throw new IOException("roadmap does not match its fingerprint");
+    }
+    return roadmap;
+  }
+
+  private static Map<String, String> fields(String json) {
+    Map<String, String> fields = new HashMap<>();
+    Matcher matcher = FIELD.matcher(json);
+    while (matcher.find()) {
+      fields.put(matcher.group(1), unquote(matcher.group(2)));
+    }
+    return fields;
+  }
+
+  private static String unquote(String value) {
+    return value != null && value.startsWith("\"") ? value.substring(1, value.length() - 1) : value;
+  }
+}
@@ -52,12 +52,26 @@ public class Section {
     this.setNext(other);
     other.setPrev(this);
     
-    Position pos = this.getPiece().getPosition();
-    Position otherPos = pos.transform(this.getExit()).invTransform(other.getEntry());
+    MutablePosition pos = new MutablePosition(this.getPiece().getPosition());
+    Position otherPos = pos.transform(this.getExit()).invTransform(other.getEntry()).toPosition();
     other.getPiece().setPosition(otherPos);
   }
   
   public Section reverse() {
     return new ReverseSection(this);
   }
+  
+  /**
+   * @return length of the center line from entry to exit in mm
+   */
+  public double getLength() {
+    Position entry = getEntry();
+    Position exit = getExit();
+    double chord = entry.distance(exit);
+    double angle = Math.toRadians((exit.getAngle() - entry.getAngle() + 540) % 360 - 180);
+    if (Math.abs(angle) < 1e-9) {
+      return chord;
+    }
+    return chord * Math.abs(angle / 2 / Math.sin(angle / 2));
+  }
 }
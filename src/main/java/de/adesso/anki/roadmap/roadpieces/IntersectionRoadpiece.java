@@ -40,4 +40,9 @@ public class IntersectionRoadpiece extends Roadpiece {
     }
   }
   
+  @Override
+  public int getSectionIndex(int locationId) {
+    return locationId / 4 % 2;
+  }
+  
 }
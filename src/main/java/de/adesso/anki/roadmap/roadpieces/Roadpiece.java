@@ -1,10 +1,8 @@
 package de.adesso.anki.roadmap.roadpieces;
 
-import java.util.Arrays;
 import java.util.List;
-import java.util.Set;
-
-import org.reflections.Reflections;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
 
 import com.google.common.collect.ImmutableList;
 import de.adesso.anki.roadmap.Position;
@@ -12,28 +10,70 @@ import de.adesso.anki.roadmap.Roadmap;
 import de.adesso.anki.roadmap.Section;
 
 public abstract class Roadpiece {
-  private final static Reflections reflections = new Reflections("de.adesso.anki.roadmap.roadpieces");
-  
+  private int id;
   private Position position;
   protected Section section;
   
   public static Roadpiece createFromId(int roadpieceId) {
-    Set<Class<? extends Roadpiece>> roadpieces = reflections.getSubTypesOf(Roadpiece.class);
+    if (roadpieceId < 0 || roadpieceId >= Factories.BY_ID.length()) {
+      return null;
+    }
+    Supplier<? extends Roadpiece> factory = Factories.BY_ID.get(roadpieceId);
+    if (factory == null) {
+      return null;
+    }
 
-    for (Class<? extends Roadpiece> roadpiece : roadpieces) {
-      try {
-        int[] ids = (int[]) roadpiece.getField("ROADPIECE_IDS").get(null);
+    Roadpiece piece = factory.get();
+    piece.id = roadpieceId;
+    return piece;
+  }
+  
+  /**
+   * Makes {@link #createFromId(int)} create pieces of a custom type for the given roadpiece ids,
+   * replacing the type registered before.
+   *
+   * @throws IllegalArgumentException if an id is not between 0 and 255
+   */
+  public static void register(int[] roadpieceIds, Supplier<? extends Roadpiece> factory) {
+    for (int roadpieceId : roadpieceIds) {
+      register(roadpieceId, factory);
+    }
+  }
+  
+  public static void register(int roadpieceId, Supplier<? extends Roadpiece> factory) {
+    if (roadpieceId < 0 || roadpieceId >= Factories.BY_ID.length()) {
+      throw new IllegalArgumentException("roadpiece id out of range: " + roadpieceId);
+    }
+    Factories.BY_ID.set(roadpieceId, factory);
+  }
+  
+  /**
+   * Factories by roadpiece id, in a holder class so that the subclasses
+   * are initialized after Roadpiece.
+   */
+  private static class Factories {
+    static final AtomicReferenceArray<Supplier<? extends Roadpiece>> BY_ID = new AtomicReferenceArray<>(256);
 
-        if (Arrays.binarySearch(ids, roadpieceId) >= 0) {
-          return roadpiece.newInstance();
-        }
-      } catch (NoSuchFieldException | IllegalAccessException | InstantiationException | ClassCastException e) {
-        // just skip the Roadpiece subclass if there is no ROADPIECE_IDS constant
-        // or it cannot be instantiated
-      }
+    static {
+      add(StraightRoadpiece.ROADPIECE_IDS, StraightRoadpiece::new);
+      add(CurvedRoadpiece.ROADPIECE_IDS, CurvedRoadpiece::new);
+      add(IntersectionRoadpiece.ROADPIECE_IDS, IntersectionRoadpiece::new);
+      add(StartRoadpiece.ROADPIECE_IDS, StartRoadpiece::new);
+      add(FinishRoadpiece.ROADPIECE_IDS, FinishRoadpiece::new);
     }
 
-    return null;
+    private static void add(int[] roadpieceIds, Supplier<? extends Roadpiece> factory) {
+      for (int roadpieceId : roadpieceIds) {
+        BY_ID.set(roadpieceId, factory);
+      }
+    }
+  }
+  
+  /**
+   * @return the roadpiece id this piece was created from, or 0 if it was created directly
+   */
+  public int getId() {
+    return id;
   }
   
   public Position getPosition() {
@@ -57,6 +97,13 @@ public abstract class Roadpiece {
     return reverse ? section.reverse() : section;
   }
   
+  /**
+   * @return index in {@link #getSections()} of the section the location belongs to
+   */
+  public int getSectionIndex(int locationId) {
+    return 0;
+  }
+  
   //TODO: This should be a Unit-Test...
   public static void main(String[] args) {
     
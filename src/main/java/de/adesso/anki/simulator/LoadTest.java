@@ -0,0 +1,114 @@
+package de.adesso.anki.simulator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import de.adesso.anki.AnkiConnector;
+import de.adesso.anki.Metrics;
+import de.adesso.anki.Model;
+import de.adesso.anki.TransientMessageListener;
+import de.adesso.anki.Vehicle;
+import de.adesso.anki.messages.LocalizationPositionUpdateMessage;
+import de.adesso.anki.messages.SetSpeedMessage;
+
+/**
+ * Drives many virtual vehicles through an AnkiConnector and reports the throughput of position
+ * updates and the round trip time of pings sent while the vehicles are driving.
+ *
+ * Usage: LoadTest [vehicles] [seconds] [updates per second] [binary] [metrics]
+ */
+public class LoadTest {
+
+  public static void main(String[] args) throws Exception {
+    int vehicleCount = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+    int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+    int updateRate = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+    boolean binary = args.length > 3 && Boolean.parseBoolean(args[3]);
+    boolean metrics = args.length > 4 && Boolean.parseBoolean(args[4]);
+
+    SimulatedTrack track = SimulatedTrack.oval();
+    Model[] models = Model.values();
+
+    try (SimulatedBridge bridge = new SimulatedBridge(0)) {
+      for (int i = 0; i < vehicleCount; i++) {
+        VirtualVehicle vehicle = new VirtualVehicle(String.format("%012x", 0xd0c0ffee0000L + i),
+            models[i % models.length], track);
+        vehicle.place(i % track.size(), -67.5f + (i / track.size() % 16) * 9);
+        bridge.addVehicle(vehicle);
+      }
+      bridge.setUpdateRate(updateRate);
+      bridge.setScanDuration(200, TimeUnit.MILLISECONDS);
+      bridge.start();
+
+      AnkiConnector anki = new AnkiConnector("localhost", bridge.getPort(), binary);
+      anki.setFlyweightDecoding(true);
+      anki.getMetrics().setEnabled(metrics);
+      List<Vehicle> vehicles = anki.findVehicles();
+      System.out.printf("found %d vehicles, %s mode%n", vehicles.size(), anki.isFramed() ? "binary" : "text");
+
+      LongAdder updates = new LongAdder();
+      TransientMessageListener<LocalizationPositionUpdateMessage> listener = (message) -> updates.increment();
+      List<CompletableFuture<Void>> connects = new ArrayList<>();
+      for (Vehicle vehicle : vehicles) {
+        vehicle.addMessageListener(LocalizationPositionUpdateMessage.class, listener);
+        connects.add(vehicle.connectAsync());
+      }
+      CompletableFuture.allOf(connects.toArray(new CompletableFuture<?>[0])).join();
+
+      for (Vehicle vehicle : vehicles) {
+        vehicle.sendMessage(new SetSpeedMessage(500, 12500));
+      }
+
+      long[] roundTrips = new long[seconds * 10 * vehicles.size()];
+      int pings = 0;
+      long start = System.nanoTime();
+      long end = start + TimeUnit.SECONDS.toNanos(seconds);
+      while (System.nanoTime() < end) {
+        for (Vehicle vehicle : vehicles) {
+          long sent = System.nanoTime();
+          vehicle.ping().join();
+          if (pings < roundTrips.length) {
+            roundTrips[pings++] = System.nanoTime() - sent;
+          }
+        }
+        Thread.sleep(100);
+      }
+      double elapsed = (System.nanoTime() - start) / 1e9;
+
+      for (Vehicle vehicle : vehicles) {
+        vehicle.sendMessage(new SetSpeedMessage(0, 12500));
+        vehicle.disconnect();
+      }
+      anki.close();
+
+      Arrays.sort(roundTrips, 0, pings);
+      System.out.printf("position updates: %d received, %.0f/s%n", updates.sum(), updates.sum() / elapsed);
+      System.out.printf("bridge messages: %d sent, %d received%n", bridge.getMessagesSent(), bridge.getMessagesReceived());
+      System.out.printf("ping round trip of %d pings: p50 %.2f ms, p99 %.2f ms, max %.2f ms%n", pings,
+          percentile(roundTrips, pings, 0.5), percentile(roundTrips, pings, 0.99), percentile(roundTrips, pings, 1));
+      if (metrics) {
+        Metrics summary = anki.getMetrics();
+        System.out.printf("metrics: %d received, %d sent, max queue depth %d%n", summary.getMessagesReceived(),
+            summary.getMessagesSent(), summary.getMaxQueueDepth());
+        System.out.println("  parse:             " + summary.getParseTime());
+        System.out.println("  dispatch:          " + summary.getDispatchTime());
+        System.out.println("  listener:          " + summary.getListenerTime());
+        System.out.println("  ping:              " + summary.getPingRoundTrip());
+        System.out.println("  speed to position: " + summary.getSpeedToPosition());
+        System.out.println("  by type:           " + summary.getMessagesReceivedByType());
+      }
+    }
+  }
+
+  private static double percentile(long[] sorted, int count, double percentile) {
+    if (count == 0) {
+      return Double.NaN;
+    }
+    int index = (int) Math.min(count - 1, Math.ceil(percentile * count) - 1);
+    return sorted[Math.max(0, index)] / 1e6;
+  }
+}
@@ -0,0 +1,465 @@
+package de.adesso.anki.simulator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.bind.DatatypeConverter;
+
+import de.adesso.anki.NotificationReader;
+import de.adesso.anki.messages.Message;
+
+/**
+ * Simulates the Node.js gateway with virtual vehicles, so that clients can be tested without
+ * Bluetooth hardware.
+ *
+ * The bridge speaks the gateway's protocol on a local port: SCAN (including SCAN;START and
+ * SCAN;STOP), CONNECT, DISCONNECT and hex encoded vehicle messages, as well as binary framing
+ * and broadcasts negotiated with HELLO. All vehicles are advanced by a common clock that ticks at
+ * the update rate, and every tick is simulated with the same time step regardless of scheduling
+ * delays.
+ */
+public class SimulatedBridge implements Closeable {
+  private static final int DEFAULT_UPDATE_RATE = 20;
+  private static final long DEFAULT_SCAN_DURATION = 2000;
+
+  private final ServerSocket server;
+  private final List<VirtualVehicle> vehicles;
+  private final Map<String, VirtualVehicle> vehiclesByAddress;
+  private final Map<VirtualVehicle, Session> connections;
+  private final List<Session> sessions;
+  private final ScheduledExecutorService clock;
+
+  private final AtomicLong messagesSent = new AtomicLong();
+  private final AtomicLong messagesReceived = new AtomicLong();
+
+  private volatile int updateRate = DEFAULT_UPDATE_RATE;
+  private volatile long scanDuration = DEFAULT_SCAN_DURATION;
+  private volatile boolean closing;
+
+  /**
+   * Creates a bridge listening on the loopback interface.
+   *
+   * @param port port to listen on, or 0 for any free port
+   */
+  public SimulatedBridge(int port) throws IOException {
+    server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+    vehicles = new CopyOnWriteArrayList<>();
+    vehiclesByAddress = new ConcurrentHashMap<>();
+    connections = new ConcurrentHashMap<>();
+    sessions = new CopyOnWriteArrayList<>();
+    clock = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+      Thread thread = new Thread(runnable, "simulator-clock");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  public int getPort() {
+    return server.getLocalPort();
+  }
+
+  public void addVehicle(VirtualVehicle vehicle) {
+    if (vehiclesByAddress.putIfAbsent(vehicle.getAddress(), vehicle) != null) {
+      throw new IllegalArgumentException("duplicate vehicle address: " + vehicle.getAddress());
+    }
+    vehicles.add(vehicle);
+  }
+
+  public List<VirtualVehicle> getVehicles() {
+    return new ArrayList<>(vehicles);
+  }
+
+  /**
+   * Sets how often the vehicles are advanced and report their position. Must be called before
+   * {@link #start()}.
+   *
+   * @param updateRate ticks per second
+   */
+  public void setUpdateRate(int updateRate) {
+    this.updateRate = updateRate;
+  }
+
+  /**
+   * Sets how long a SCAN takes until SCAN;COMPLETED is sent.
+   */
+  public void setScanDuration(long scanDuration, TimeUnit unit) {
+    this.scanDuration = unit.toMillis(scanDuration);
+  }
+
+  /**
+   * @return number of vehicle messages sent to clients
+   */
+  public long getMessagesSent() {
+    return messagesSent.get();
+  }
+
+  /**
+   * @return number of vehicle messages received from clients
+   */
+  public long getMessagesReceived() {
+    return messagesReceived.get();
+  }
+
+  /**
+   * Starts accepting clients and ticking the vehicles.
+   */
+  public void start() {
+    Thread acceptor = new Thread(this::accept, "simulator-acceptor");
+    acceptor.setDaemon(true);
+    acceptor.start();
+
+    long period = TimeUnit.SECONDS.toNanos(1) / updateRate;
+    double seconds = 1.0 / updateRate;
+    clock.scheduleAtFixedRate(() -> tick(seconds), period, period, TimeUnit.NANOSECONDS);
+  }
+
+  @Override
+  public void close() throws IOException {
+    closing = true;
+    clock.shutdownNow();
+    server.close();
+    for (Session session : sessions) {
+      session.close();
+    }
+  }
+
+  private void accept() {
+    while (!closing) {
+      try {
+        Session session = new Session(server.accept());
+        sessions.add(session);
+
+        Thread reader = new Thread(session::run, "simulator-session");
+        reader.setDaemon(true);
+        reader.start();
+      } catch (IOException e) {
+        if (!closing)
+          e.printStackTrace();
+      }
+    }
+  }
+
+  private void tick(double seconds) {
+    for (VirtualVehicle vehicle : vehicles) {
+      Session session = connections.get(vehicle);
+      if (session != null) {
+        vehicle.tick(seconds, (message) -> session.send(vehicle, message));
+      }
+    }
+    for (Session session : sessions) {
+      session.flush();
+    }
+  }
+
+  private class Session {
+    private final Socket socket;
+    private final InputStream input;
+    private final OutputStream output;
+    private final ByteBuffer encodeBuffer;
+    private final Map<VirtualVehicle, Integer> channels;
+    private final Map<Integer, VirtualVehicle> channelVehicles;
+
+    private volatile boolean binary;
+    private ScheduledFuture<?> discovery;
+
+    Session(Socket socket) throws IOException {
+      this.socket = socket;
+      socket.setTcpNoDelay(true);
+      this.input = new BufferedInputStream(socket.getInputStream());
+      this.output = new BufferedOutputStream(socket.getOutputStream());
+      this.encodeBuffer = ByteBuffer.allocate(Message.MAX_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+      this.channels = new ConcurrentHashMap<>();
+      this.channelVehicles = new ConcurrentHashMap<>();
+    }
+
+    void run() {
+      try {
+        while (!closing) {
+          if (binary) {
+            readFrame();
+          }
+          else {
+            handleCommand(readLine());
+          }
+        }
+      } catch (EOFException e) {
+        // client closed the connection
+      } catch (IOException e) {
+        if (!closing)
+          e.printStackTrace();
+      } finally {
+        close();
+      }
+    }
+
+    private String readLine() throws IOException {
+      ByteArrayOutputStream line = new ByteArrayOutputStream();
+      int b;
+      while ((b = input.read()) != '\n') {
+        if (b < 0) {
+          throw new EOFException();
+        }
+        line.write(b);
+      }
+      return new String(line.toByteArray(), StandardCharsets.US_ASCII).trim();
+    }
+
+    private void readFrame() throws IOException {
+      int length = read() | read() << 8;
+      if (length == 0) {
+        return;
+      }
+      int channel = read();
+      byte[] data = new byte[length - 1];
+      for (int i = 0; i < data.length; i++) {
+        data[i] = (byte) read();
+      }
+
+      if (channel == NotificationReader.CONTROL_CHANNEL) {
+        handleCommand(new String(data, StandardCharsets.US_ASCII).trim());
+      }
+      else if (channel == NotificationReader.BROADCAST_CHANNEL) {
+        int count = Byte.toUnsignedInt(data[0]);
+        Message message = Message.parse(ByteBuffer.wrap(data, 1 + count, data.length - 1 - count));
+        for (int i = 1; i <= count; i++) {
+          VirtualVehicle vehicle = channelVehicles.get(Byte.toUnsignedInt(data[i]));
+          if (vehicle != null) {
+            receive(vehicle, message);
+          }
+        }
+      }
+      else {
+        VirtualVehicle vehicle = channelVehicles.get(channel);
+        if (vehicle != null) {
+          receive(vehicle, Message.parse(ByteBuffer.wrap(data)));
+        }
+      }
+    }
+
+    private int read() throws IOException {
+      int b = input.read();
+      if (b < 0) {
+        throw new EOFException();
+      }
+      return b;
+    }
+
+    private void handleCommand(String line) {
+      String[] command = line.split(";");
+      switch (command[0]) {
+        case "":
+          break;
+
+        case "HELLO":
+          List<String> accepted = new ArrayList<>();
+          for (String feature : command.length > 1 ? command[1].split(",") : new String[0]) {
+            if (feature.equals("binary") || feature.equals("broadcast")) {
+              accepted.add(feature);
+            }
+          }
+          sendLine("HELLO;" + String.join(",", accepted));
+          binary = accepted.contains("binary");
+          break;
+
+        case "BROADCAST":
+          if (command.length == 3) {
+            Message message = Message.parse(command[2]);
+            for (String address : command[1].split(",")) {
+              VirtualVehicle target = vehiclesByAddress.get(address);
+              if (target != null && connections.get(target) == this) {
+                receive(target, message);
+              }
+            }
+          }
+          break;
+
+        case "SCAN":
+          scan(command.length > 1 ? command[1] : "");
+          break;
+
+        case "CONNECT":
+          connect(command);
+          break;
+
+        case "DISCONNECT":
+          disconnect(command);
+          break;
+
+        default:
+          VirtualVehicle vehicle = vehiclesByAddress.get(command[0]);
+          if (command.length == 2 && vehicle != null && connections.get(vehicle) == this) {
+            receive(vehicle, Message.parse(command[1]));
+          }
+      }
+    }
+
+    private void scan(String mode) {
+      if (mode.equals("STOP")) {
+        synchronized (this) {
+          if (discovery != null) {
+            discovery.cancel(false);
+            discovery = null;
+          }
+        }
+      }
+      else if (mode.equals("START")) {
+        synchronized (this) {
+          if (discovery == null) {
+            discovery = clock.scheduleWithFixedDelay(this::advertise, 0, scanDuration, TimeUnit.MILLISECONDS);
+          }
+        }
+      }
+      else {
+        advertise();
+        clock.schedule(() -> sendLine("SCAN;COMPLETED"), scanDuration, TimeUnit.MILLISECONDS);
+      }
+    }
+
+    private void advertise() {
+      for (VirtualVehicle vehicle : vehicles) {
+        if (!connections.containsKey(vehicle)) {
+          sendLine(String.format("SCAN;%s;%s;%s", vehicle.getAddress(), vehicle.getManufacturerData(),
+              vehicle.getLocalName()));
+        }
+      }
+    }
+
+    private void connect(String[] command) {
+      String address = command.length > 1 ? command[1] : "";
+      VirtualVehicle vehicle = vehiclesByAddress.get(address);
+      if (command.length != (binary ? 3 : 2) || vehicle == null
+          || connections.putIfAbsent(vehicle, this) != null) {
+        sendLine("CONNECT;ERROR;" + address);
+        return;
+      }
+
+      if (binary) {
+        int channel = Integer.parseInt(command[2]);
+        channels.put(vehicle, channel);
+        channelVehicles.put(channel, vehicle);
+      }
+      sendLine("CONNECT;SUCCESS;" + address);
+    }
+
+    private void disconnect(String[] command) {
+      String address = command.length > 1 ? command[1] : "";
+      VirtualVehicle vehicle = vehiclesByAddress.get(address);
+      if (command.length != 2 || vehicle == null || !connections.remove(vehicle, this)) {
+        sendLine("DISCONNECT;ERROR;" + address);
+        return;
+      }
+
+      Integer channel = channels.remove(vehicle);
+      if (channel != null) {
+        channelVehicles.remove(channel);
+      }
+      sendLine("DISCONNECT;SUCCESS;" + address);
+    }
+
+    private void receive(VirtualVehicle vehicle, Message message) {
+      messagesReceived.incrementAndGet();
+      vehicle.receive(message, (response) -> send(vehicle, response));
+      flush();
+    }
+
+    void send(VirtualVehicle vehicle, Message message) {
+      synchronized (output) {
+        try {
+          encodeBuffer.clear();
+          message.writeTo(encodeBuffer);
+
+          if (binary) {
+            Integer channel = channels.get(vehicle);
+            if (channel == null) {
+              return;
+            }
+            int length = encodeBuffer.position() + 1;
+            output.write(length & 0xff);
+            output.write(length >> 8);
+            output.write(channel);
+            output.write(encodeBuffer.array(), 0, encodeBuffer.position());
+          }
+          else {
+            byte[] data = new byte[encodeBuffer.position()];
+            System.arraycopy(encodeBuffer.array(), 0, data, 0, data.length);
+            String line = vehicle.getAddress() + ";" + DatatypeConverter.printHexBinary(data).toLowerCase() + "\n";
+            output.write(line.getBytes(StandardCharsets.US_ASCII));
+          }
+          messagesSent.incrementAndGet();
+        } catch (IOException e) {
+          close();
+        }
+      }
+    }
+
+    void sendLine(String line) {
+      synchronized (output) {
+        try {
+          byte[] data = line.getBytes(StandardCharsets.US_ASCII);
+          if (binary) {
+            int length = data.length + 1;
+            output.write(length & 0xff);
+            output.write(length >> 8);
+            output.write(NotificationReader.CONTROL_CHANNEL);
+            output.write(data);
+          }
+          else {
+            output.write(data);
+            output.write('\n');
+          }
+          output.flush();
+        } catch (IOException e) {
+          close();
+        }
+      }
+    }
+
+    void flush() {
+      synchronized (output) {
+        try {
+          output.flush();
+        } catch (IOException e) {
+          close();
+        }
+      }
+    }
+
+    void close() {
+      if (sessions.remove(this)) {
+        connections.values().removeIf((session) -> session == this);
+        synchronized (this) {
+          if (discovery != null) {
+            discovery.cancel(false);
+          }
+        }
+        try {
+          socket.close();
+        } catch (IOException e) {
+          // already closed
+        }
+      }
+    }
+  }
+}
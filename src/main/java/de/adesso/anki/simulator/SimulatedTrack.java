@@ -0,0 +1,65 @@
+package de.adesso.anki.simulator;
+
+import de.adesso.anki.roadmap.Roadmap;
+import de.adesso.anki.roadmap.Section;
+import de.adesso.anki.roadmap.roadpieces.Roadpiece;
+
+/**
+ * A closed track for virtual vehicles, built from roadpiece ids in driving order.
+ */
+public class SimulatedTrack {
+  private final int[] roadpieceIds;
+  private final double[] lengths;
+  private final Roadmap roadmap;
+
+  /**
+   * @param roadpieceIds roadpiece ids in driving order, e.g. as reported by transition updates
+   * @throws IllegalArgumentException if an id is unknown or the pieces do not form a closed track
+   */
+  public SimulatedTrack(int... roadpieceIds) {
+    this.roadpieceIds = roadpieceIds.clone();
+    this.lengths = new double[roadpieceIds.length];
+    this.roadmap = new Roadmap();
+
+    for (int i = 0; i < roadpieceIds.length; i++) {
+      Roadpiece piece = Roadpiece.createFromId(roadpieceIds[i]);
+      if (piece == null) {
+        throw new IllegalArgumentException("unknown roadpiece id: " + roadpieceIds[i]);
+      }
+      Section section = piece.getSectionByLocation(0, false);
+      lengths[i] = section.getLength();
+      roadmap.addSection(section);
+    }
+
+    if (!roadmap.isComplete()) {
+      throw new IllegalArgumentException("roadpieces do not form a closed track");
+    }
+  }
+
+  /**
+   * Creates the oval track of the starter kit: start/finish, two curves, a straight and two curves.
+   */
+  public static SimulatedTrack oval() {
+    return new SimulatedTrack(34, 33, 17, 18, 36, 20, 23);
+  }
+
+  public int size() {
+    return roadpieceIds.length;
+  }
+
+  public int getRoadpieceId(int index) {
+    return roadpieceIds[index];
+  }
+
+  /**
+   * @return length of the roadpiece's center line in mm
+   */
+  public double getLength(int index) {
+    return lengths[index];
+  }
+
+  public Roadmap getRoadmap() {
+    return roadmap;
+  }
+
+}
@@ -0,0 +1,222 @@
+package de.adesso.anki.simulator;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+import javax.xml.bind.DatatypeConverter;
+
+import de.adesso.anki.Model;
+import de.adesso.anki.messages.BatteryLevelRequestMessage;
+import de.adesso.anki.messages.BatteryLevelResponseMessage;
+import de.adesso.anki.messages.ChangeLaneMessage;
+import de.adesso.anki.messages.LocalizationPositionUpdateMessage;
+import de.adesso.anki.messages.LocalizationTransitionUpdateMessage;
+import de.adesso.anki.messages.Message;
+import de.adesso.anki.messages.OffsetFromRoadCenterUpdateMessage;
+import de.adesso.anki.messages.PingRequestMessage;
+import de.adesso.anki.messages.PingResponseMessage;
+import de.adesso.anki.messages.SetOffsetFromRoadCenterMessage;
+import de.adesso.anki.messages.SetSpeedMessage;
+import de.adesso.anki.messages.VehicleDelocalizedMessage;
+import de.adesso.anki.messages.VersionRequestMessage;
+import de.adesso.anki.messages.VersionResponseMessage;
+
+/**
+ * A simulated vehicle driving around a {@link SimulatedTrack}.
+ *
+ * The vehicle answers ping, version and battery requests, follows speed, lane change and offset
+ * commands and reports its position on every tick of the simulation while it is moving. Its state
+ * only depends on the commands it received and the ticks, so a simulation is repeatable.
+ */
+public class VirtualVehicle {
+  private static final int LANES = 16;
+  private static final float LANE_WIDTH = 9;
+  private static final double LOCATION_SPACING = 187;
+
+  private final String address;
+  private final Model model;
+  private final SimulatedTrack track;
+
+  private int batteryLevel = 3900;
+  private int version = 0x2e66;
+
+  private boolean localized = true;
+  private boolean delocalizing;
+  private int piece;
+  private double distance;
+  private double speed;
+  private int targetSpeed;
+  private int acceleration;
+
+  private float offset;
+  private float targetOffset;
+  private int horizontalSpeed;
+  private int laneChangeId;
+  private boolean changingLane;
+
+  public VirtualVehicle(String address, Model model, SimulatedTrack track) {
+    this.address = address;
+    this.model = model;
+    this.track = track;
+  }
+
+  public String getAddress() {
+    return address;
+  }
+
+  public Model getModel() {
+    return model;
+  }
+
+  /**
+   * Places the vehicle at the beginning of the given roadpiece.
+   *
+   * @param piece index of the roadpiece on the track
+   * @param offset offset from road center in mm
+   */
+  public synchronized void place(int piece, float offset) {
+    this.piece = piece;
+    this.distance = 0;
+    this.offset = this.targetOffset = offset;
+    this.localized = true;
+  }
+
+  public synchronized void setBatteryLevel(int batteryLevel) {
+    this.batteryLevel = batteryLevel;
+  }
+
+  /**
+   * Lifts the vehicle off the track. It stops, reports that it is delocalized on the next tick and
+   * only drives again after it received a new speed.
+   */
+  public synchronized void delocalize() {
+    localized = false;
+    delocalizing = true;
+    speed = targetSpeed = 0;
+  }
+
+  /**
+   * @return advertised manufacturer data as hex
+   */
+  public String getManufacturerData() {
+    ByteBuffer data = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+    data.putShort((short) 0xbeef).put((byte) 0).put((byte) model.getId()).putInt(address.hashCode());
+    return DatatypeConverter.printHexBinary(data.array()).toLowerCase();
+  }
+
+  /**
+   * @return advertised local name as hex
+   */
+  public String getLocalName() {
+    ByteBuffer data = ByteBuffer.allocate(13);
+    data.put((byte) 0x10).put((byte) 0x24).put((byte) 0x30).position(8);
+    data.put("Drive".getBytes(StandardCharsets.US_ASCII));
+    return DatatypeConverter.printHexBinary(data.array()).toLowerCase();
+  }
+
+  /**
+   * Handles a message sent to the vehicle.
+   *
+   * @param reply receives the vehicle's response, if there is one
+   */
+  synchronized void receive(Message message, Consumer<Message> reply) {
+    if (message instanceof PingRequestMessage) {
+      reply.accept(new PingResponseMessage());
+    }
+    else if (message instanceof VersionRequestMessage) {
+      reply.accept(new VersionResponseMessage(version));
+    }
+    else if (message instanceof BatteryLevelRequestMessage) {
+      reply.accept(new BatteryLevelResponseMessage(batteryLevel));
+    }
+    else if (message instanceof SetSpeedMessage) {
+      SetSpeedMessage setSpeed = (SetSpeedMessage) message;
+      targetSpeed = Math.max(0, setSpeed.getSpeed());
+      acceleration = setSpeed.getAcceleration();
+      localized = true;
+    }
+    else if (message instanceof ChangeLaneMessage) {
+      ChangeLaneMessage changeLane = (ChangeLaneMessage) message;
+      targetOffset = Math.max(-LANE_WIDTH * LANES / 2, Math.min(LANE_WIDTH * LANES / 2, changeLane.getOffsetFromCenter()));
+      horizontalSpeed = changeLane.getHorizontalSpeed();
+      laneChangeId = (laneChangeId + 1) & 0xff;
+      changingLane = true;
+    }
+    else if (message instanceof SetOffsetFromRoadCenterMessage) {
+      offset = targetOffset = ((SetOffsetFromRoadCenterMessage) message).getOffsetFromRoadCenter();
+    }
+  }
+
+  /**
+   * Advances the simulation by the given time.
+   *
+   * @param seconds simulated time since the last tick
+   * @param emit receives the notifications the vehicle sends during this tick
+   */
+  synchronized void tick(double seconds, Consumer<Message> emit) {
+    if (delocalizing) {
+      delocalizing = false;
+      emit.accept(new VehicleDelocalizedMessage());
+    }
+    if (!localized) {
+      return;
+    }
+
+    if (acceleration <= 0) {
+      speed = targetSpeed;
+    }
+    else if (speed < targetSpeed) {
+      speed = Math.min(targetSpeed, speed + acceleration * seconds);
+    }
+    else {
+      speed = Math.max(targetSpeed, speed - acceleration * seconds);
+    }
+
+    if (changingLane) {
+      float step = horizontalSpeed > 0 ? (float) (horizontalSpeed * seconds) : Float.MAX_VALUE;
+      if (Math.abs(targetOffset - offset) <= step) {
+        offset = targetOffset;
+        changingLane = false;
+        emit.accept(new OffsetFromRoadCenterUpdateMessage(offset, laneChangeId));
+      }
+      else {
+        offset += Math.signum(targetOffset - offset) * step;
+      }
+    }
+
+    if (speed <= 0) {
+      return;
+    }
+
+    distance += speed * seconds;
+    while (distance >= track.getLength(piece)) {
+      distance -= track.getLength(piece);
+      int previous = piece;
+      piece = (piece + 1) % track.size();
+
+      int wheelDistance = (int) Math.min(255, Math.round(track.getLength(previous) / 10));
+      emit.accept(new LocalizationTransitionUpdateMessage(track.getRoadpieceId(piece),
+          track.getRoadpieceId(previous), offset, wheelDistance, wheelDistance));
+    }
+
+    emit.accept(new LocalizationPositionUpdateMessage(locationId(), track.getRoadpieceId(piece), offset,
+        (int) speed, false));
+  }
+
+  private int locationId() {
+    int lane = Math.round((offset + LANE_WIDTH * (LANES - 1) / 2) / LANE_WIDTH);
+    lane = Math.max(0, Math.min(LANES - 1, lane));
+
+    double length = track.getLength(piece);
+    int locations = (int) Math.max(1, Math.round(length / LOCATION_SPACING));
+    int location = (int) Math.min(locations - 1, distance / length * locations);
+    return lane * locations + location;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s %s", model, address);
+  }
+}
@@ -1,116 +1,260 @@
-var net = require('net');
-var noble = require('noble');
-var util = require('util');
-
-var server = net.createServer(function(client) {
-  client.vehicles = [];
-
-  client.on("error", (err) => {
-    console.log("connection error"); // client disconnected?
-    client.vehicles.forEach((vehicle) => vehicle.disconnect());
-  });
-  client.on("data", function(data) {
-    data.toString().split("\r\n").forEach(function(line) {
-	  var command = line.toString().trim().split(";");
-	  if (command[0])
-	    console.log(command)
-	  switch(command[0])
-	  {
-	    case "SCAN":
-	      console.log(noble);
-	      if (noble.state === 'poweredOn') {
-	        var discover = function(device) {
-	          client.write(util.format("SCAN;%s;%s;%s\n",
-	              device.id,
-	              device.advertisement.manufacturerData.toString('hex'),
-	              new Buffer(device.advertisement.localName).toString('hex')));
-	        };
-	
-	        noble.on('discover', discover);
-	        noble.startScanning(['be15beef6186407e83810bd89c4d8df4']);
-	
-	        setTimeout(function() {
-	           noble.stopScanning();
-	           noble.removeListener('discover', discover)
-	           client.write("SCAN;COMPLETED\n");
-	        }, 2000);
-	      }
-	      else {
-	        client.write("SCAN;ERROR\n");
-	      }
-	      break;
-	      
-	    case "CONNECT":
-	      console.log("connect begin");
-	      if (command.length != 2) {
-	        client.write("CONNECT;ERROR\n");
-	        break;
-	      }
-	
-	      var vehicle = noble._peripherals[command[1]];
-	      if (vehicle === undefined) {
-	        client.write("CONNECT;ERROR\n");
-	        break;
-	      }
-	
-	      var success = false;
-	
-	      vehicle.connect(function(error) {
-	        vehicle.discoverSomeServicesAndCharacteristics(
-	            ["be15beef6186407e83810bd89c4d8df4"],
-	            ["be15bee06186407e83810bd89c4d8df4", "be15bee16186407e83810bd89c4d8df4"],
-	            function(error, services, characteristics) {
-	              vehicle.reader = characteristics.find(x => !x.properties.includes("write"));
-	              vehicle.writer = characteristics.find(x => x.properties.includes("write"));
-	
-	              vehicle.reader.notify(true);
-	              vehicle.reader.on('read', function(data, isNotification) {
-	                client.write(util.format("%s;%s\n", vehicle.id, data.toString("hex")));
-	                //console.log(util.format("%s;%s\n", vehicle.id, data.toString("hex")));
-	              });
-	              client.write("CONNECT;SUCCESS\n");
-                      client.vehicles.push(vehicle);
-	              console.log("connect success");
-	              success = true;
-	            }
-	        );
-	      });
-	
-	      setTimeout(() => {
-	        if (!success) {
-	      	  client.write("CONNECT;ERROR\n");
-	          console.log("connect error");
-	        }
-	      }, 500);
-	
-	      break;
-	      
-	    case "DISCONNECT":
-	      if (command.length != 2) {
-	        client.write("DISCONNECT;ERROR\n");
-	        break;
-	      }
-	
-	      var vehicle = noble._peripherals[command[1]];
-	      if (vehicle === undefined) {
-	        client.write("DISCONNECT;ERROR\n");
-	        break;
-	      }
-	
-	      vehicle.disconnect();
-	      client.write("DISCONNECT;SUCCESS\n");
-	      break;
-	    
-	    default:
-	      if (command.length == 2 && noble._peripherals[command[0]] !== undefined) {
-	        var vehicle = noble._peripherals[command[0]];
-	        vehicle.writer.write(new Buffer(command[1], 'hex'));
-	      }
-	  }
-	});
-  });
-});
-
-server.listen(5000);
-
-console.log("Server gestartet")
+var net = require('net');
+var noble = require('noble');
+var util = require('util');
+
+// Binary framing (negotiated with "HELLO;binary"):
+// [length: uint16 LE][channel: uint8][data: length - 1 bytes]
+// Channel 0xff carries control lines, all other channels carry raw
+// Anki messages of the vehicle connected with "CONNECT;<address>;<channel>".
+//
+// Responses to CONNECT and DISCONNECT end with the vehicle address, so the
+// client can have requests for several vehicles in flight at the same time.
+//
+// Broadcasts (negotiated with "HELLO;broadcast") write one message to several
+// vehicles. In text mode they are sent as "BROADCAST;<address>,...;<hex>",
+// with binary framing as a frame on channel 0xfe holding
+// [count: uint8][channel: uint8 * count][message].
+var CONTROL_CHANNEL = 0xff;
+var BROADCAST_CHANNEL = 0xfe;
+var FEATURES = ["binary", "broadcast"];
+
+var server = net.createServer(function(client) {
+  client.vehicles = [];
+  client.binary = false;
+  client.channels = {};
+  client.pending = new Buffer(0);
+  client.partialLine = "";
+
+  client.send = function(line) {
+    if (client.binary) {
+      client.sendFrame(CONTROL_CHANNEL, new Buffer(line));
+    }
+    else {
+      client.write(line + "\n");
+    }
+  };
+
+  client.sendFrame = function(channel, data) {
+    var frame = new Buffer(3 + data.length);
+    frame.writeUInt16LE(data.length + 1, 0);
+    frame.writeUInt8(channel, 2);
+    data.copy(frame, 3);
+    client.write(frame);
+  };
+
+  client.on("error", (err) => {
+    console.log("connection error"); // client disconnected?
+    client.vehicles.forEach((vehicle) => vehicle.disconnect());
+    if (client.discover !== undefined) {
+      noble.removeListener('discover', client.discover);
+    }
+  });
+  client.on("data", function(data) {
+    if (client.binary) {
+      readFrames(client, data);
+      return;
+    }
+
+    readLines(client, data);
+  });
+});
+
+function readLines(client, data) {
+  // a write can be split across chunks, so the unfinished last line waits for the next chunk
+  var lines = (client.partialLine + data.toString()).split(/\r?\n/);
+  client.partialLine = lines.pop();
+  // the client waits for the HELLO reply before sending any frames
+  lines.forEach(function(line) {
+    handleCommand(client, line);
+  });
+}
+
+function readFrames(client, data) {
+  var buffer = Buffer.concat([client.pending, data]);
+  var offset = 0;
+  while (buffer.length - offset >= 2) {
+    var length = buffer.readUInt16LE(offset);
+    if (buffer.length - offset < 2 + length) {
+      break;
+    }
+    if (length > 0) {
+      var channel = buffer.readUInt8(offset + 2);
+      var payload = buffer.slice(offset + 3, offset + 2 + length);
+      if (channel === CONTROL_CHANNEL) {
+        handleCommand(client, payload.toString());
+      }
+      else if (channel === BROADCAST_CHANNEL) {
+        var count = payload.readUInt8(0);
+        var message = payload.slice(1 + count);
+        for (var i = 1; i <= count; i++) {
+          var target = client.channels[payload.readUInt8(i)];
+          if (target !== undefined) {
+            target.writer.write(message);
+          }
+        }
+      }
+      else if (client.channels[channel] !== undefined) {
+        client.channels[channel].writer.write(payload);
+      }
+    }
+    offset += 2 + length;
+  }
+  client.pending = buffer.slice(offset);
+}
+
+function handleCommand(client, line) {
+  var command = line.toString().trim().split(";");
+  if (command[0])
+    console.log(command)
+  switch(command[0])
+  {
+    case "HELLO":
+      var requested = command.length > 1 ? command[1].split(",") : [];
+      var accepted = requested.filter((feature) => FEATURES.includes(feature));
+      client.send("HELLO;" + accepted.join(","));
+      client.binary = accepted.includes("binary");
+      break;
+
+    case "SCAN":
+      console.log(noble);
+      if (noble.state !== 'poweredOn') {
+        client.send("SCAN;ERROR");
+        break;
+      }
+
+      var discover = function(device) {
+        client.send(util.format("SCAN;%s;%s;%s",
+            device.id,
+            device.advertisement.manufacturerData.toString('hex'),
+            new Buffer(device.advertisement.localName).toString('hex')));
+      };
+
+      if (command[1] === "START") {
+        // continuous scan, reporting repeated advertisements until SCAN;STOP
+        if (client.discover === undefined) {
+          client.discover = discover;
+          noble.on('discover', discover);
+          noble.startScanning(['be15beef6186407e83810bd89c4d8df4'], true);
+        }
+        break;
+      }
+
+      if (command[1] === "STOP") {
+        if (client.discover !== undefined) {
+          noble.stopScanning();
+          noble.removeListener('discover', client.discover);
+          client.discover = undefined;
+        }
+        break;
+      }
+
+      noble.on('discover', discover);
+      noble.startScanning(['be15beef6186407e83810bd89c4d8df4']);
+
+      setTimeout(function() {
+         if (client.discover === undefined) {
+           noble.stopScanning();
+         }
+         noble.removeListener('discover', discover)
+         client.send("SCAN;COMPLETED");
+      }, 2000);
+      break;
+
+    case "CONNECT":
+      console.log("connect begin");
+      if (command.length != (client.binary ? 3 : 2)) {
+        client.send("CONNECT;ERROR;" + (command[1] || ""));
+        break;
+      }
+
+      var vehicle = noble._peripherals[command[1]];
+      if (vehicle === undefined) {
+        client.send("CONNECT;ERROR;" + (command[1] || ""));
+        break;
+      }
+
+      var channel = client.binary ? parseInt(command[2]) : undefined;
+      var success = false;
+
+      vehicle.connect(function(error) {
+        vehicle.discoverSomeServicesAndCharacteristics(
+            ["be15beef6186407e83810bd89c4d8df4"],
+            ["be15bee06186407e83810bd89c4d8df4", "be15bee16186407e83810bd89c4d8df4"],
+            function(error, services, characteristics) {
+              vehicle.reader = characteristics.find(x => !x.properties.includes("write"));
+              vehicle.writer = characteristics.find(x => x.properties.includes("write"));
+
+              vehicle.reader.notify(true);
+              vehicle.reader.on('read', function(data, isNotification) {
+                if (client.binary) {
+                  client.sendFrame(channel, data);
+                }
+                else {
+                  client.write(util.format("%s;%s\n", vehicle.id, data.toString("hex")));
+                }
+              });
+              if (channel !== undefined) {
+                client.channels[channel] = vehicle;
+              }
+              client.send("CONNECT;SUCCESS;" + command[1]);
+              client.vehicles.push(vehicle);
+              console.log("connect success");
+              success = true;
+            }
+        );
+      });
+
+      setTimeout(() => {
+        if (!success) {
+          client.send("CONNECT;ERROR;" + (command[1] || ""));
+          console.log("connect error");
+        }
+      }, 500);
+
+      break;
+
+    case "DISCONNECT":
+      if (command.length != 2) {
+        client.send("DISCONNECT;ERROR;" + (command[1] || ""));
+        break;
+      }
+
+      var vehicle = noble._peripherals[command[1]];
+      if (vehicle === undefined) {
+        client.send("DISCONNECT;ERROR;" + (command[1] || ""));
+        break;
+      }
+
+      Object.keys(client.channels).forEach((channel) => {
+        if (client.channels[channel] === vehicle) {
+          delete client.channels[channel];
+        }
+      });
+      vehicle.disconnect();
+      client.send("DISCONNECT;SUCCESS;" + command[1]);
+      break;
+
+    case "BROADCAST":
+      if (command.length != 3) {
+        break;
+      }
+      var message = new Buffer(command[2], 'hex');
+      command[1].split(",").forEach((address) => {
+        var target = noble._peripherals[address];
+        if (target !== undefined && target.writer !== undefined) {
+          target.writer.write(message);
+        }
+      });
+      break;
+
+    default:
+      if (command.length == 2 && noble._peripherals[command[0]] !== undefined) {
+        var vehicle = noble._peripherals[command[0]];
+        vehicle.writer.write(new Buffer(command[1], 'hex'));
+      }
+  }
+}
+
+server.listen(5000);
+
+console.log("Server gestartet")